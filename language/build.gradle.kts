@@ -0,0 +1,8 @@
+plugins {
+    id("me.champeau.gradle.jmh") version "0.5.3"
+}
+
+jmh {
+    jmhVersion = "1.25"
+    resultFormat = "JSON"
+}
@@ -0,0 +1,160 @@
+package fan.zhuyi.selfish.language;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.EnvironmentAccess;
+import org.graalvm.polyglot.Source;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+ * Whole scripts from src/jmh/resources/workloads, evaluated through a polyglot
+ * context the way the launcher runs them. Every workload works on files generated
+ * under $WORK. The transfer workload is measured as throughput per second, so its
+ * megabytes counter reads as MB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShellWorkloadBenchmark {
+    private static final String ID = SelfishLanguage.ID;
+    private static final int MEGABYTE = 1 << 20;
+
+    @Param({"64"})
+    public int dataMegabytes;
+
+    @Param({"20"})
+    public int treeWidth;
+
+    @Param({"20000"})
+    public int lines;
+
+    private Path work;
+    private Engine engine;
+    private Context context;
+    private Source spawnLoop;
+    private Source transfer;
+    private Source treeWalk;
+    private Source stringBuilding;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public long megabytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        work = Files.createTempDirectory("selfish-workload");
+        generateData(work.resolve("data"));
+        generateTree(work.resolve("tree"));
+        generateLines(work.resolve("lines"));
+        engine = Engine.create();
+        context = Context.newBuilder(ID)
+                .engine(engine)
+                .allowIO(true)
+                .allowCreateProcess(true)
+                .allowEnvironmentAccess(EnvironmentAccess.INHERIT)
+                .environment("WORK", work.toString())
+                .out(OutputStream.nullOutputStream())
+                .build();
+        spawnLoop = load("spawn-loop.slsh");
+        transfer = load("transfer.slsh");
+        treeWalk = load("tree-walk.slsh");
+        stringBuilding = load("string-building.slsh");
+    }
+
+    private static Source load(String name) throws IOException {
+        final var stream = ShellWorkloadBenchmark.class.getResourceAsStream("/workloads/" + name);
+        if (stream == null) {
+            throw new IOException("missing workload " + name);
+        }
+        try (var reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            return Source.newBuilder(ID, reader, name).build();
+        }
+    }
+
+    private void generateData(Path file) throws IOException {
+        final var line = "the quick brown fox jumps over the lazy dog 0123456789\n".getBytes(StandardCharsets.US_ASCII);
+        final var block = new byte[MEGABYTE];
+        for (var i = 0; i < block.length; ++i) {
+            block[i] = line[i % line.length];
+        }
+        try (var stream = Files.newOutputStream(file)) {
+            for (var i = 0; i < dataMegabytes; ++i) {
+                stream.write(block);
+            }
+        }
+    }
+
+    private void generateTree(Path root) throws IOException {
+        for (var i = 0; i < treeWidth; ++i) {
+            for (var j = 0; j < treeWidth; ++j) {
+                final var directory = Files.createDirectories(root.resolve("d" + i).resolve("e" + j));
+                for (var k = 0; k < treeWidth; ++k) {
+                    Files.createFile(directory.resolve("f" + k + ".txt"));
+                }
+            }
+        }
+    }
+
+    private void generateLines(Path file) throws IOException {
+        final var builder = new StringBuilder();
+        for (var i = 0; i < lines; ++i) {
+            builder.append("line number ").append(i).append('\n');
+        }
+        Files.writeString(file, builder);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        engine.close();
+        try (Stream<Path> paths = Files.walk(work)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public Object spawnLoop() {
+        return context.eval(spawnLoop);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Object transfer(Throughput throughput) {
+        final var result = context.eval(transfer);
+        throughput.megabytes += 3L * dataMegabytes;
+        return result;
+    }
+
+    @Benchmark
+    public Object treeWalk() {
+        return context.eval(treeWalk);
+    }
+
+    @Benchmark
+    public Object stringBuilding() {
+        return context.eval(stringBuilding);
+    }
+}
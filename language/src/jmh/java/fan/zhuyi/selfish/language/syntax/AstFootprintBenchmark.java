@@ -0,0 +1,98 @@
+package fan.zhuyi.selfish.language.syntax;
+
+import com.oracle.truffle.api.source.Source;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.node.BlockNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Heap retained by the AST of a large generated script, reported as the astBytes
+ * and sourceBytes counters next to the parse time, and by the parser itself once it
+ * is done, as parserBytes: the memo entries it still holds. The corpus mixes the
+ * statements generated scripts are made of: commands with literal and interpolated
+ * words, redirections, loops and functions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AstFootprintBenchmark {
+    @Param({"200000"})
+    public int statements;
+
+    private Source source;
+    private SelfishParser parser;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long astBytes;
+        public long sourceBytes;
+        public long parserBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void generateCorpus() {
+        final var builder = new StringBuilder();
+        for (var i = 0; i < statements; ++i) {
+            switch (i % 8) {
+                case 0:
+                    builder.append("echo building target-").append(i).append(" 'in release mode'\n");
+                    break;
+                case 1:
+                    builder.append("cp -r src/module-").append(i).append(" \"$OUT/module-").append(i).append("\"\n");
+                    break;
+                case 2:
+                    builder.append("cat input-").append(i).append(".txt >> build.log\n");
+                    break;
+                case 3:
+                    builder.append("for f in a.o b.o c.o { echo \"linking $f\" }\n");
+                    break;
+                case 4:
+                    builder.append("fn step-").append(i).append(" name { echo \"step $name\" > step.log }\n");
+                    break;
+                case 5:
+                    builder.append("test -f out/").append(i).append(" ; echo done\n");
+                    break;
+                case 6:
+                    builder.append("# generated from rule ").append(i).append('\n');
+                    break;
+                default:
+                    builder.append("printf '%s\\n' x").append(i).append(" y").append(i).append(" z").append(i).append('\n');
+                    break;
+            }
+        }
+        source = Source.newBuilder(SelfishLanguage.ID, builder, "corpus.slsh").build();
+        source.getCharacters();
+    }
+
+    private static long usedHeap() {
+        for (var i = 0; i < 4; ++i) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Benchmark
+    public BlockNode parseCorpus(Footprint footprint) {
+        final var before = usedHeap();
+        parser = new SelfishParser(source);
+        final BlockNode ast;
+        try {
+            ast = parser.parseProgram();
+        } catch (SelfishParser.SelfishSyntaxError error) {
+            throw new IllegalStateException(error.getMessage(), error);
+        }
+        final var withParser = usedHeap();
+        parser = null;
+        footprint.astBytes = usedHeap() - before;
+        footprint.parserBytes = withParser - before - footprint.astBytes;
+        footprint.sourceBytes = source.getLength() * 2L;
+        return ast;
+    }
+}
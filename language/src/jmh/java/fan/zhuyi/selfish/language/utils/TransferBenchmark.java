@@ -0,0 +1,91 @@
+package fan.zhuyi.selfish.language.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * File to file copies as done by redirections of builtins, through a reused heap
+ * buffer, compared with a stream copy and with transferTo. The shell cannot use
+ * transferTo while files are opened through TruffleFile; it is measured to show what
+ * that costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransferBenchmark {
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    @Param({"1073741824", "4294967296"})
+    public long size;
+
+    private Path directory;
+    private Path source;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void createSource() throws IOException {
+        directory = Files.createTempDirectory("selfish-transfer");
+        source = directory.resolve("source");
+        target = directory.resolve("target");
+        final var block = ByteBuffer.allocateDirect(BLOCK_SIZE);
+        for (var i = 0; i < BLOCK_SIZE; ++i) {
+            block.put((byte) (i * 31 + 7));
+        }
+        try (var channel = FileChannel.open(source, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            var written = 0L;
+            while (written < size) {
+                block.clear();
+                block.limit((int) Math.min(BLOCK_SIZE, size - written));
+                written += channel.write(block);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(directory);
+    }
+
+    private FileChannel openTarget() throws IOException {
+        return FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Benchmark
+    public long transferTo() throws IOException {
+        try (var in = FileChannel.open(source, StandardOpenOption.READ); var out = openTarget()) {
+            var position = 0L;
+            final var end = in.size();
+            while (position < end) {
+                position += in.transferTo(position, end - position, out);
+            }
+            return position;
+        }
+    }
+
+    @Benchmark
+    public long bufferCopy() throws IOException {
+        try (var in = FileChannel.open(source, StandardOpenOption.READ); var out = openTarget()) {
+            return SelfishChannels.copy(in, out, ByteBuffer.allocate(64 * 1024));
+        }
+    }
+
+    @Benchmark
+    public long streamCopy() throws IOException {
+        try (var in = Files.newInputStream(source); var out = Files.newOutputStream(target)) {
+            return in.transferTo(out);
+        }
+    }
+}
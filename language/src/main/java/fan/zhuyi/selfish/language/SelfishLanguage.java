@@ -1,33 +1,167 @@
 package fan.zhuyi.selfish.language;
 
 import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.ContextThreadLocal;
+import com.oracle.truffle.api.Option;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.Truffle;
 import com.oracle.truffle.api.TruffleLanguage;
+import fan.zhuyi.selfish.language.node.BuiltinRootNode;
+import fan.zhuyi.selfish.language.node.ExternalCommandRootNode;
+import fan.zhuyi.selfish.language.node.ProgramRootNode;
+import fan.zhuyi.selfish.language.runtime.SelfishBuiltins;
 import fan.zhuyi.selfish.language.runtime.SelfishContext;
+import fan.zhuyi.selfish.language.runtime.SelfishException;
+import fan.zhuyi.selfish.language.runtime.SelfishOutput;
+import fan.zhuyi.selfish.language.runtime.SelfishScope;
+import fan.zhuyi.selfish.language.runtime.SelfishThreadState;
+import fan.zhuyi.selfish.language.syntax.SelfishParser;
+import org.graalvm.options.OptionCategory;
+import org.graalvm.options.OptionDescriptors;
+import org.graalvm.options.OptionKey;
+import org.graalvm.options.OptionStability;
+import org.graalvm.options.OptionValues;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @TruffleLanguage.Registration(
         id = SelfishLanguage.ID,
         name = "selfish",
         defaultMimeType = SelfishLanguage.MIME_TYPE,
         characterMimeTypes = SelfishLanguage.MIME_TYPE,
+        contextPolicy = TruffleLanguage.ContextPolicy.SHARED,
         fileTypeDetectors = SelfishFileDetector.class
 )
 public class SelfishLanguage extends TruffleLanguage<SelfishContext> {
     public static final String MIME_TYPE = "application/x-selfish";
     public static final String ID = "selfish";
-    public static volatile int counter;
+    public static final AtomicInteger counter = new AtomicInteger();
+
+    @Option(name = "OutputFlush", category = OptionCategory.USER, stability = OptionStability.STABLE,
+            help = "When buffered output of builtins is flushed: AUTO (per line on a terminal, by size otherwise), LINE or BLOCK.")
+    public static final OptionKey<SelfishOutput.FlushPolicy> OUTPUT_FLUSH = new OptionKey<>(SelfishOutput.FlushPolicy.AUTO);
+
+    @Option(name = "SubstitutionLimit", category = OptionCategory.USER, stability = OptionStability.STABLE,
+            help = "Most bytes a command substitution $(...) may capture (default 64 MiB).")
+    public static final OptionKey<Integer> SUBSTITUTION_LIMIT = new OptionKey<>(64 * 1024 * 1024);
+
+    @Option(name = "InheritIO", category = OptionCategory.EXPERT, stability = OptionStability.STABLE,
+            help = "Let external commands use the standard streams of the JVM instead of piping them through those of the context. For launchers, whose context streams are the JVM's.")
+    public static final OptionKey<Boolean> INHERIT_IO = new OptionKey<>(false);
+
+    @Option(name = "ProcessAccounting", category = OptionCategory.USER, stability = OptionStability.STABLE,
+            help = "Sum up the time and memory used by external commands per call site, readable as the processes binding.")
+    public static final OptionKey<Boolean> PROCESS_ACCOUNTING = new OptionKey<>(false);
+
+    @Option(name = "ProcessReport", category = OptionCategory.USER, stability = OptionStability.STABLE,
+            help = "Print the time and memory used by external commands to stderr when the context is closed. Implies ProcessAccounting.")
+    public static final OptionKey<Boolean> PROCESS_REPORT = new OptionKey<>(false);
+
+    private final Map<String, RootCallTarget> builtinTargets = new ConcurrentHashMap<>();
+    private volatile RootCallTarget externalCommandTarget;
+    private final ContextThreadLocal<SelfishThreadState> threadState =
+            createContextThreadLocal((context, thread) -> context.createThreadState());
 
     public SelfishLanguage() {
-        //noinspection NonAtomicOperationOnVolatileField
-        ++counter;
+        counter.incrementAndGet();
+    }
+
+    @Override
+    protected OptionDescriptors getOptionDescriptors() {
+        return new SelfishLanguageOptionDescriptors();
     }
 
     @Override
     protected SelfishContext createContext(Env env) {
-        return null;
+        return new SelfishContext(this, env);
+    }
+
+    @Override
+    protected boolean patchContext(SelfishContext context, Env newEnv) {
+        context.patch(newEnv);
+        return true;
+    }
+
+    @Override
+    protected void disposeContext(SelfishContext context) {
+        context.dispose();
+    }
+
+    /*
+     * The processes a context has run are readable as the member "processes" of the
+     * selfish polyglot bindings.
+     */
+    @Override
+    protected Object getScope(SelfishContext context) {
+        return new SelfishScope(context);
+    }
+
+    /*
+     * Nothing is bound to a thread but input and output, which are per thread, so any
+     * number of threads may run in a context, and contexts on any thread.
+     */
+    @Override
+    protected boolean isThreadAccessAllowed(Thread thread, boolean singleThreaded) {
+        return true;
+    }
+
+    @Override
+    protected void disposeThread(SelfishContext context, Thread thread) {
+        context.disposeThreadState(threadState.get(thread));
+    }
+
+    public SelfishThreadState getThreadState() {
+        return threadState.get();
+    }
+
+    /*
+     * ASTs never capture per-context state and no option influences parsing,
+     * so any two contexts can share them.
+     */
+    @Override
+    protected boolean areOptionsCompatible(OptionValues firstOptions, OptionValues newOptions) {
+        return true;
     }
 
     @Override
     protected CallTarget parse(ParsingRequest request) throws Exception {
-        throw new UnsupportedOperationException("language is not implemented yet");
+        final var source = request.getSource();
+        final var parser = new SelfishParser(this, source);
+        try {
+            final var body = parser.parseProgram();
+            final var root = new ProgramRootNode(this, parser.getFrameDescriptor(), body, source.createSection(0, source.getLength()));
+            return Truffle.getRuntime().createCallTarget(root);
+        } catch (SelfishParser.SelfishSyntaxError error) {
+            throw new SelfishException(error.getMessage(), null);
+        }
+    }
+
+    /*
+     * Builtins and external commands run the same code in every context, so their
+     * call targets are shared like parsed ASTs are.
+     */
+    public RootCallTarget getBuiltinTarget(String name) {
+        final var builtin = SelfishBuiltins.lookup(name);
+        if (builtin == null) {
+            return null;
+        }
+        return builtinTargets.computeIfAbsent(name,
+                key -> Truffle.getRuntime().createCallTarget(new BuiltinRootNode(this, key, builtin)));
+    }
+
+    public RootCallTarget getExternalCommandTarget() {
+        var target = externalCommandTarget;
+        if (target == null) {
+            synchronized (this) {
+                target = externalCommandTarget;
+                if (target == null) {
+                    target = Truffle.getRuntime().createCallTarget(new ExternalCommandRootNode(this));
+                    externalCommandTarget = target;
+                }
+            }
+        }
+        return target;
     }
-}
\ No newline at end of file
+}
@@ -1,60 +1,53 @@
 package fan.zhuyi.selfish.language.node;
 
-import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.CachedContext;
 import com.oracle.truffle.api.dsl.Specialization;
 import com.oracle.truffle.api.frame.VirtualFrame;
-import com.oracle.truffle.api.source.SourceSection;
-
-import java.nio.file.Paths;
+import com.oracle.truffle.api.source.Source;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
 
 public abstract class BarewordNode extends ExpressionNode {
+    protected static final String USER = "USER";
+
     String bareword;
     protected final boolean needWildcardExpansion;
     protected final boolean needTildeExpansion;
 
-    BarewordNode(SourceSection section, String bareword, boolean needWildcardExpansion, boolean needTildeExpansion) {
-        super(section);
+    BarewordNode(Source source, long sourceRange, String bareword, boolean needWildcardExpansion, boolean needTildeExpansion) {
+        super(source, sourceRange);
         this.bareword = bareword;
         this.needTildeExpansion = needTildeExpansion;
         this.needWildcardExpansion = needWildcardExpansion;
     }
 
-    protected static String getCurrentUser() {
-        return System.getenv("USER");
-    }
-
-    protected static String currentWorkingDirectory() {
-        return Paths.get(".").toAbsolutePath().normalize().toString();
-    }
-
     @Specialization(guards = {"!needTildeExpansion", "!needWildcardExpansion"})
     public String executeString(VirtualFrame frame) {
         return bareword;
     }
 
 
-    private static final class CachedData {
-        String expanded;
-        String user;
-        String cwd;
-
-        public CachedData(String expanded, String user, String cwd) {
-            this.expanded = expanded;
-            this.user = user;
-            this.cwd = cwd;
-        }
+    /*
+     * The expansion depends on the user and the working directory of the context, so
+     * it is cached for one context at a time and only while neither of them changes.
+     * Any other context takes the uncached path instead of replacing the cache.
+     */
+    @Specialization(guards = {"context == cachedContext"}, assumptions = {"userUnchanged", "directoryUnchanged"}, limit = "1")
+    @SuppressWarnings("unused")
+    public String executeStringCached(VirtualFrame frame,
+                                      @CachedContext(SelfishLanguage.class) SelfishContext context,
+                                      @Cached("context") SelfishContext cachedContext,
+                                      @Cached("context.getVariableUnchanged(USER)") Assumption userUnchanged,
+                                      @Cached("context.getWorkingDirectoryUnchanged()") Assumption directoryUnchanged,
+                                      @Cached("expandedString(frame)") String expanded) {
+        return expanded;
     }
 
-    CachedData cache = null;
-
-    @Specialization
-    @SuppressWarnings("unused")
-    public String executeStringCached(VirtualFrame frame) {
-        if (cache == null || !cache.user.equals(getCurrentUser()) || !cache.cwd.equals(currentWorkingDirectory())) {
-            CompilerDirectives.transferToInterpreterAndInvalidate();
-            cache = new CachedData(expandedString(frame), getCurrentUser(), currentWorkingDirectory());
-        }
-        return cache.expanded;
+    @Specialization(replaces = "executeStringCached")
+    public String executeStringUncached(VirtualFrame frame) {
+        return expandedString(frame);
     }
 
     public String expandedString(VirtualFrame frame) {
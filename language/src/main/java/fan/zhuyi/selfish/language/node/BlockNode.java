@@ -0,0 +1,25 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.source.Source;
+
+public class BlockNode extends ExpressionNode {
+    @Children
+    ExpressionNode[] statements;
+
+    public BlockNode(Source source, long sourceRange, ExpressionNode[] statements) {
+        super(source, sourceRange);
+        this.statements = statements;
+    }
+
+    @ExplodeLoop
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        Object result = CommandNode.EXIT_SUCCESS;
+        for (var i : statements) {
+            result = i.executeGeneric(frame);
+        }
+        return result;
+    }
+}
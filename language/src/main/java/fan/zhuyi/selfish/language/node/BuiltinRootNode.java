@@ -0,0 +1,64 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.RootNode;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishBuiltin;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+import fan.zhuyi.selfish.language.runtime.SelfishException;
+import fan.zhuyi.selfish.language.runtime.SelfishFunction;
+import fan.zhuyi.selfish.language.runtime.SelfishRedirection;
+import fan.zhuyi.selfish.language.utils.SelfishProcess;
+
+import java.io.IOException;
+
+public final class BuiltinRootNode extends RootNode {
+    private final String name;
+    private final SelfishBuiltin builtin;
+
+    @CompilerDirectives.CompilationFinal
+    private TruffleLanguage.ContextReference<SelfishContext> contextReference;
+
+    public BuiltinRootNode(SelfishLanguage language, String name, SelfishBuiltin builtin) {
+        super(language);
+        this.name = name;
+        this.builtin = builtin;
+    }
+
+    private SelfishContext currentContext() {
+        if (contextReference == null) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            contextReference = lookupContextReference(SelfishLanguage.class);
+        }
+        return contextReference.get();
+    }
+
+    @Override
+    public Object execute(VirtualFrame frame) {
+        final var arguments = frame.getArguments();
+        return run(currentContext(),
+                (String[]) arguments[SelfishFunction.ARGUMENT_ARGV],
+                (SelfishProcess.IOPipe[]) arguments[SelfishFunction.ARGUMENT_PIPES]);
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private long run(SelfishContext context, String[] argv, SelfishProcess.IOPipe[] pipes) {
+        try {
+            final var redirection = SelfishRedirection.install(context, pipes);
+            try {
+                return builtin.execute(context, argv);
+            } finally {
+                redirection.close();
+            }
+        } catch (IOException e) {
+            throw SelfishException.create(argv[0] + ": " + e.getMessage(), this);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
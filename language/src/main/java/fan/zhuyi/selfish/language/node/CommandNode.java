@@ -0,0 +1,77 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.source.Source;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+import fan.zhuyi.selfish.language.runtime.SelfishException;
+import fan.zhuyi.selfish.language.utils.SelfishProcess;
+
+public class CommandNode extends ExpressionNode {
+    public static final long EXIT_SUCCESS = 0;
+
+    public static boolean isSuccess(Object status) {
+        return status instanceof Long && (long) status == EXIT_SUCCESS;
+    }
+
+    @Children
+    ExpressionNode[] words;
+
+    @Children
+    RedirectionNode[] redirections;
+
+    @Child
+    private LookupCommandNode lookup = LookupCommandNodeGen.create();
+
+    @Child
+    private DispatchNode dispatch = DispatchNodeGen.create();
+
+    @CompilerDirectives.CompilationFinal
+    private TruffleLanguage.ContextReference<SelfishContext> contextReference;
+
+    public CommandNode(Source source, long sourceRange, ExpressionNode[] words, RedirectionNode[] redirections) {
+        super(source, sourceRange);
+        this.words = words;
+        this.redirections = redirections;
+    }
+
+    private SelfishContext currentContext() {
+        if (contextReference == null) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            contextReference = lookupContextReference(SelfishLanguage.class);
+        }
+        return contextReference.get();
+    }
+
+    @ExplodeLoop
+    protected String[] evaluateArguments(VirtualFrame frame) {
+        final var argv = new String[words.length];
+        for (var i = 0; i < words.length; ++i) {
+            argv[i] = words[i].executeString(frame);
+        }
+        return argv;
+    }
+
+    @ExplodeLoop
+    protected SelfishProcess.IOPipe[] evaluateRedirections(VirtualFrame frame, SelfishContext context) {
+        final var pipes = new SelfishProcess.IOPipe[redirections.length];
+        for (var i = 0; i < redirections.length; ++i) {
+            pipes[i] = redirections[i].execute(frame, context);
+        }
+        return pipes;
+    }
+
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        final var argv = evaluateArguments(frame);
+        final var pipes = evaluateRedirections(frame, currentContext());
+        final var command = lookup.executeLookup(argv[0]);
+        if (command == null) {
+            throw SelfishException.create(argv[0] + ": command not found", this);
+        }
+        return dispatch.executeDispatch(command, command.createArguments(argv, pipes, this));
+    }
+}
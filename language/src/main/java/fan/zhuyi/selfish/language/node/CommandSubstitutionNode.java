@@ -0,0 +1,160 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.source.Source;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishCapture;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+import fan.zhuyi.selfish.language.runtime.SelfishException;
+import fan.zhuyi.selfish.language.runtime.SelfishOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * $(...) runs its statements with the output of the current thread replaced by a
+ * capture. External commands see a pipe and write into the capture as well. The
+ * input is the context's own again: a substitution in a heredoc must not read the
+ * rest of the heredoc it is being expanded for.
+ */
+public class CommandSubstitutionNode extends StringNode {
+    @Child
+    private ExpressionNode body;
+
+    @CompilerDirectives.CompilationFinal
+    private TruffleLanguage.ContextReference<SelfishContext> contextReference;
+
+    public CommandSubstitutionNode(Source source, long sourceRange, ExpressionNode body) {
+        super(source, sourceRange);
+        this.body = body;
+    }
+
+    private SelfishContext currentContext() {
+        if (contextReference == null) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            contextReference = lookupContextReference(SelfishLanguage.class);
+        }
+        return contextReference.get();
+    }
+
+    @Override
+    public String executeString(VirtualFrame frame) {
+        final var context = currentContext();
+        final var previous = context.getOutput();
+        final var capture = newCapture(context);
+        final var output = new SelfishOutput(capture, StandardCharsets.UTF_8);
+        final var previousInput = context.getInput();
+        context.setOutput(output);
+        context.setInput(context.getStandardInput());
+        try {
+            body.executeGeneric(frame);
+        } finally {
+            context.setOutput(previous);
+            context.setInput(previousInput);
+        }
+        return finish(output, capture);
+    }
+
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        return executeString(frame);
+    }
+
+    /*
+     * Runs the statements with their output going to target as it is written, for
+     * substitutions that only feed another process. Nothing is captured, so there
+     * is no limit.
+     */
+    long streamTo(VirtualFrame frame, WritableByteChannel target) throws IOException {
+        final var context = currentContext();
+        final var previous = context.getOutput();
+        final var trimmed = new TrimmingChannel(target);
+        final var output = new SelfishOutput(trimmed, StandardCharsets.UTF_8);
+        final var previousInput = context.getInput();
+        context.setOutput(output);
+        context.setInput(context.getStandardInput());
+        try {
+            body.executeGeneric(frame);
+        } finally {
+            context.setOutput(previous);
+            context.setInput(previousInput);
+        }
+        output.flush();
+        return trimmed.written;
+    }
+
+    /*
+     * Holds back newlines until something follows them, so the trailing ones are
+     * dropped without buffering the output.
+     */
+    private static final class TrimmingChannel implements WritableByteChannel {
+        private final WritableByteChannel target;
+        private int pendingNewlines;
+        private long written;
+
+        TrimmingChannel(WritableByteChannel target) {
+            this.target = target;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            final var length = source.remaining();
+            var end = source.limit();
+            while (end > source.position() && source.get(end - 1) == '\n') {
+                --end;
+            }
+            if (end == source.position()) {
+                pendingNewlines += length;
+                return length;
+            }
+            if (pendingNewlines > 0) {
+                final var newlines = ByteBuffer.allocate(pendingNewlines);
+                while (newlines.hasRemaining()) {
+                    newlines.put((byte) '\n');
+                }
+                newlines.flip();
+                writeFully(newlines);
+            }
+            final var limit = source.limit();
+            source.limit(end);
+            writeFully(source);
+            source.limit(limit).position(limit);
+            pendingNewlines = limit - end;
+            return length;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                written += target.write(buffer);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return target.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private static SelfishCapture newCapture(SelfishContext context) {
+        return new SelfishCapture(context.getEnv().getOptions().get(SelfishLanguage.SUBSTITUTION_LIMIT));
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private String finish(SelfishOutput output, SelfishCapture capture) {
+        try {
+            output.flush();
+        } catch (IOException e) {
+            throw SelfishException.create(e.getMessage(), this);
+        }
+        return capture.decode(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,32 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.nodes.DirectCallNode;
+import com.oracle.truffle.api.nodes.IndirectCallNode;
+import com.oracle.truffle.api.nodes.Node;
+import fan.zhuyi.selfish.language.runtime.SelfishFunction;
+
+/*
+ * A polymorphic inline cache of direct calls, which the compiler can inline and
+ * split. Call sites that see too many targets call indirectly.
+ */
+public abstract class DispatchNode extends Node {
+    protected static final int INLINE_CACHE_SIZE = 3;
+
+    public abstract Object executeDispatch(SelfishFunction function, Object[] arguments);
+
+    @Specialization(guards = "function.getCallTarget() == cachedTarget", limit = "INLINE_CACHE_SIZE")
+    protected static Object doDirect(SelfishFunction function, Object[] arguments,
+                                     @Cached("function.getCallTarget()") RootCallTarget cachedTarget,
+                                     @Cached("create(cachedTarget)") DirectCallNode callNode) {
+        return callNode.call(arguments);
+    }
+
+    @Specialization(replaces = "doDirect")
+    protected static Object doIndirect(SelfishFunction function, Object[] arguments,
+                                       @Cached IndirectCallNode callNode) {
+        return callNode.call(function.getCallTarget(), arguments);
+    }
+}
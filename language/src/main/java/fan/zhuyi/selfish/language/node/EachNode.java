@@ -0,0 +1,117 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameUtil;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.RepeatingNode;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import com.oracle.truffle.api.source.Source;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+import fan.zhuyi.selfish.language.runtime.SelfishException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * each <name> < <file> { <body> }: runs body for every line of file. Lines are read
+ * one at a time, the reader is kept in a frame slot.
+ */
+public class EachNode extends ExpressionNode {
+    @Child
+    private ExpressionNode path;
+    @Child
+    private LoopNode loop;
+
+    private final FrameSlot readerSlot;
+
+    @CompilerDirectives.CompilationFinal
+    private TruffleLanguage.ContextReference<SelfishContext> contextReference;
+
+    public EachNode(Source source, long sourceRange, FrameSlot variableSlot, FrameSlot readerSlot,
+                    ExpressionNode path, ExpressionNode body) {
+        super(source, sourceRange);
+        this.path = path;
+        this.readerSlot = readerSlot;
+        this.loop = Truffle.getRuntime().createLoopNode(new EachRepeatingNode(variableSlot, readerSlot, body));
+    }
+
+    private SelfishContext currentContext() {
+        if (contextReference == null) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            contextReference = lookupContextReference(SelfishLanguage.class);
+        }
+        return contextReference.get();
+    }
+
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        final var reader = open(currentContext(), path.executeString(frame));
+        frame.setObject(readerSlot, reader);
+        try {
+            loop.execute(frame);
+        } finally {
+            close(reader);
+        }
+        return CommandNode.EXIT_SUCCESS;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private BufferedReader open(SelfishContext context, String file) {
+        try {
+            return context.resolveFile(file).newBufferedReader(StandardCharsets.UTF_8);
+        } catch (IOException | SecurityException e) {
+            // refused when the context does not allow IO
+            throw SelfishException.create("each: " + e.getMessage(), this);
+        }
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private static void close(BufferedReader reader) {
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class EachRepeatingNode extends Node implements RepeatingNode {
+        @Child
+        private ExpressionNode body;
+
+        private final FrameSlot variableSlot;
+        private final FrameSlot readerSlot;
+        private final ConditionProfile conditionProfile = ConditionProfile.createCountingProfile();
+
+        EachRepeatingNode(FrameSlot variableSlot, FrameSlot readerSlot, ExpressionNode body) {
+            this.variableSlot = variableSlot;
+            this.readerSlot = readerSlot;
+            this.body = body;
+        }
+
+        @Override
+        public boolean executeRepeating(VirtualFrame frame) {
+            final var line = readLine((BufferedReader) FrameUtil.getObjectSafe(frame, readerSlot));
+            if (conditionProfile.profile(line != null)) {
+                frame.setObject(variableSlot, line);
+                body.executeGeneric(frame);
+                return true;
+            }
+            return false;
+        }
+
+        @CompilerDirectives.TruffleBoundary
+        private String readLine(BufferedReader reader) {
+            try {
+                return reader.readLine();
+            } catch (IOException e) {
+                throw SelfishException.create("each: " + e.getMessage(), this);
+            }
+        }
+    }
+}
@@ -4,19 +4,21 @@ import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.dsl.TypeSystemReference;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.source.Source;
 import com.oracle.truffle.api.source.SourceSection;
 
-import java.io.FileDescriptor;
-
+/*
+ * Scripts are parsed into a great many of these, so they carry as little as possible:
+ * the source and a packed range instead of a section, and no caches of their own.
+ */
 @TypeSystemReference(SelfishTypes.class)
 public abstract class ExpressionNode extends Node {
+    private final Source source;
+    private final long sourceRange;
 
-
-
-    SourceSection sourceSection;
-
-    ExpressionNode(SourceSection section) {
-        this.sourceSection = section;
+    ExpressionNode(Source source, long sourceRange) {
+        this.source = source;
+        this.sourceRange = sourceRange;
     }
 
     public String executeString(VirtualFrame frame) {
@@ -31,49 +33,35 @@ public abstract class ExpressionNode extends Node {
 
     @Override
     public SourceSection getSourceSection() {
-        return sourceSection;
+        return SourceRange.createSection(source, sourceRange);
     }
 
-    @CompilerDirectives.CompilationFinal
-    private String filtered = null;
-
-    protected String filteredString(VirtualFrame frame) {
-        if (filtered == null) {
-            filtered = executeString(frame)
-                    .chars()
-                    .filter(c -> c != '_')
-                    .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
-                    .toString();
-        }
-        return filtered;
+    public double executeDouble(VirtualFrame frame) {
+        return parseDouble(executeString(frame));
     }
 
-    @CompilerDirectives.CompilationFinal
-    private double cachedDouble = 0;
-    @CompilerDirectives.CompilationFinal
-    private boolean doubleCached = false;
-
-    @SuppressWarnings("unused")
-    public double executeDouble(VirtualFrame frame) {
-        if (!doubleCached) {
-            doubleCached = true;
-            cachedDouble = Double.parseDouble(filteredString(frame));
-        }
-        return cachedDouble;
+    public long executeInteger(VirtualFrame frame) {
+        return parseInteger(executeString(frame));
     }
 
-    @CompilerDirectives.CompilationFinal
-    private long cachedInteger = 0;
-    @CompilerDirectives.CompilationFinal
-    private boolean integerCached = false;
+    /*
+     * Numbers may be grouped with underscores.
+     */
+    @CompilerDirectives.TruffleBoundary
+    static String filterSeparators(String value) {
+        return value.chars()
+                .filter(c -> c != '_')
+                .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
+                .toString();
+    }
 
-    @SuppressWarnings("unused")
-    public long executeInteger(VirtualFrame frame) {
-        if (!integerCached) {
-            integerCached = true;
-            cachedInteger = Long.decode(filteredString(frame));
-        }
-        return cachedInteger;
+    @CompilerDirectives.TruffleBoundary
+    static double parseDouble(String value) {
+        return Double.parseDouble(filterSeparators(value));
     }
 
+    @CompilerDirectives.TruffleBoundary
+    static long parseInteger(String value) {
+        return Long.decode(filterSeparators(value));
+    }
 }
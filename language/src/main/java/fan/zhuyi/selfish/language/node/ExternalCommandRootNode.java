@@ -0,0 +1,199 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.RootNode;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishAccounting;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+import fan.zhuyi.selfish.language.runtime.SelfishException;
+import fan.zhuyi.selfish.language.runtime.SelfishFunction;
+import fan.zhuyi.selfish.language.runtime.SelfishOutput;
+import fan.zhuyi.selfish.language.runtime.SelfishReactor;
+import fan.zhuyi.selfish.language.runtime.SelfishRedirection;
+import fan.zhuyi.selfish.language.utils.SelfishChannels;
+import fan.zhuyi.selfish.language.utils.SelfishProcess;
+import fan.zhuyi.selfish.language.utils.SelfishSources;
+import org.graalvm.polyglot.io.ProcessHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One root for all executables: the path resolved by the caller comes in as an
+ * argument, so every call site sees a single target for external commands.
+ */
+public final class ExternalCommandRootNode extends RootNode {
+    private static final int FEED_BUFFER_SIZE = 64 * 1024;
+
+    @CompilerDirectives.CompilationFinal
+    private TruffleLanguage.ContextReference<SelfishContext> contextReference;
+
+    public ExternalCommandRootNode(SelfishLanguage language) {
+        super(language);
+    }
+
+    private SelfishContext currentContext() {
+        if (contextReference == null) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            contextReference = lookupContextReference(SelfishLanguage.class);
+        }
+        return contextReference.get();
+    }
+
+    @Override
+    public Object execute(VirtualFrame frame) {
+        final var arguments = frame.getArguments();
+        return spawn(currentContext(),
+                (String) arguments[SelfishFunction.ARGUMENT_PATH],
+                (String[]) arguments[SelfishFunction.ARGUMENT_ARGV],
+                (SelfishProcess.IOPipe[]) arguments[SelfishFunction.ARGUMENT_PIPES],
+                (Node) arguments[SelfishFunction.ARGUMENT_CALLER]);
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private long spawn(SelfishContext context, String path, String[] argv, SelfishProcess.IOPipe[] pipes, Node caller) {
+        try {
+            // children write to the same streams, keep the output in order
+            context.getOutput().flush();
+            final var redirection = SelfishRedirection.install(context, pipes);
+            try {
+                return run(context, path, argv, caller);
+            } finally {
+                redirection.close();
+            }
+        } catch (IOException e) {
+            throw SelfishException.create(argv[0] + ": " + e.getMessage(), this);
+        }
+    }
+
+    /*
+     * Children are started through the context, so they are subject to its sandbox,
+     * and read and write its streams, even redirected ones, through pipes. Only with
+     * InheritIO do they get the descriptors of the JVM instead, as a terminal needs.
+     */
+    private long run(SelfishContext context, String path, String[] argv, Node caller) throws IOException {
+        final var env = context.getEnv();
+        final var output = context.getOutput();
+        final var input = context.getInput() == context.getStandardInput() ? null : context.getInput();
+        final var inherit = context.isInheritingIO();
+        final var inheritOutput = inherit && output.isStandard();
+        final var command = argv.clone();
+        command[0] = path;
+        final Process process;
+        try {
+            final var builder = env.newProcessBuilder(command)
+                    .directory(env.getPublicTruffleFile(context.getCurrentWorkingDirectory()))
+                    .redirectInput(inherit && input == null ? ProcessHandler.Redirect.INHERIT : ProcessHandler.Redirect.PIPE)
+                    .redirectOutput(inheritOutput ? ProcessHandler.Redirect.INHERIT : ProcessHandler.Redirect.PIPE)
+                    .redirectError(inherit ? ProcessHandler.Redirect.INHERIT : ProcessHandler.Redirect.PIPE);
+            context.getEnvironment().applyTo(builder);
+            process = builder.start();
+        } catch (SecurityException e) {
+            throw SelfishException.create(argv[0] + ": " + e.getMessage(), this);
+        }
+        context.addJob(process);
+        final var accounting = context.getAccounting();
+        final var usage = accounting.isEnabled() ? new SelfishProcess.Usage(process) : null;
+        try {
+            final var drains = new ArrayList<SelfishReactor.Drain>(2);
+            if (!inheritOutput) {
+                drains.add(drain(process, process.getInputStream(), output, input != null));
+            }
+            if (!inherit) {
+                final var error = new SelfishOutput(Channels.newChannel(env.err()), StandardCharsets.UTF_8);
+                drains.add(drain(process, process.getErrorStream(), error, input != null));
+            }
+            if (input != null) {
+                feed(process, input);
+            } else if (!inherit) {
+                // the input of the context is not handed on
+                process.getOutputStream().close();
+            }
+            final var status = waitFor(process, drains.toArray(new SelfishReactor.Drain[0]), usage);
+            if (usage != null) {
+                record(accounting, argv[0], caller, usage, status);
+            }
+            return status;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            throw SelfishException.create(argv[0] + ": interrupted", this);
+        } catch (IOException | SelfishException e) {
+            process.destroy();
+            throw e;
+        } finally {
+            if (usage != null) {
+                usage.finish();
+            }
+            context.removeJob(process);
+        }
+    }
+
+    /*
+     * While this thread feeds the input, output that cannot be appended to a capture
+     * right away is copied by a thread that may block: it may go into another child's
+     * full stdin.
+     */
+    private static SelfishReactor.Drain drain(Process process, InputStream stream, SelfishOutput sink, boolean feeding) {
+        final var reactor = SelfishReactor.getInstance();
+        return feeding && !sink.isCapture() ? reactor.pump(process, stream, sink) : reactor.drain(process, stream, sink);
+    }
+
+    /*
+     * Waits for the output and the exit of the child. Only when usage is accounted is
+     * the child sampled meanwhile, which the JDK offers no other way to learn about.
+     */
+    private static int waitFor(Process process, SelfishReactor.Drain[] drains, SelfishProcess.Usage usage)
+            throws IOException, InterruptedException {
+        if (usage == null) {
+            SelfishReactor.await(drains);
+            return process.waitFor();
+        }
+        while (!SelfishReactor.await(drains, usage.nextInterval())) {
+            usage.sample();
+        }
+        // sampled while waiting, the child is reaped as soon as it exits
+        while (!process.waitFor(usage.nextInterval(), TimeUnit.MILLISECONDS)) {
+            usage.sample();
+        }
+        usage.finish();
+        return process.exitValue();
+    }
+
+    private static void record(SelfishAccounting accounting, String name, Node caller, SelfishProcess.Usage usage, int status) {
+        final var section = caller == null ? null : caller.getEncapsulatingSourceSection();
+        final var script = section == null ? "<unknown>" : section.getSource().getName();
+        final var location = section == null ? script : SelfishSources.location(section);
+        accounting.add(name, script, location,
+                usage.getWallNanos(), usage.getCpuNanos(), usage.getPeakRssKilobytes(), status, usage.isSampled());
+    }
+
+    /*
+     * Heredocs are encoded into the pipe chunk by chunk. A child that exits without
+     * reading everything, as head does, just ends the input.
+     */
+    private static void feed(Process process, ReadableByteChannel input) {
+        try (var stdin = Channels.newChannel(process.getOutputStream())) {
+            if (input instanceof HeredocInput) {
+                ((HeredocInput) input).transferTo(stdin);
+            } else {
+                SelfishChannels.copy(input, stdin, ByteBuffer.allocate(FEED_BUFFER_SIZE));
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "<external>";
+    }
+}
@@ -0,0 +1,82 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameUtil;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.RepeatingNode;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import com.oracle.truffle.api.source.Source;
+
+/*
+ * for <name> in <word>... { <body> }: the items and the position in them are kept
+ * in frame slots, so the loop can be compiled while it is running.
+ */
+public class ForNode extends ExpressionNode {
+    @Children
+    private final ExpressionNode[] items;
+    @Child
+    private LoopNode loop;
+
+    private final FrameSlot itemsSlot;
+    private final FrameSlot indexSlot;
+
+    public ForNode(Source source, long sourceRange, FrameSlot variableSlot, FrameSlot itemsSlot,
+                   FrameSlot indexSlot, ExpressionNode[] items, ExpressionNode body) {
+        super(source, sourceRange);
+        this.items = items;
+        this.itemsSlot = itemsSlot;
+        this.indexSlot = indexSlot;
+        this.loop = Truffle.getRuntime().createLoopNode(new ForRepeatingNode(variableSlot, itemsSlot, indexSlot, body));
+    }
+
+    @ExplodeLoop
+    private Object[] evaluateItems(VirtualFrame frame) {
+        final var values = new Object[items.length];
+        for (var i = 0; i < items.length; ++i) {
+            values[i] = items[i].executeString(frame);
+        }
+        return values;
+    }
+
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        frame.setObject(itemsSlot, evaluateItems(frame));
+        frame.setInt(indexSlot, 0);
+        loop.execute(frame);
+        return CommandNode.EXIT_SUCCESS;
+    }
+
+    private static final class ForRepeatingNode extends Node implements RepeatingNode {
+        @Child
+        private ExpressionNode body;
+
+        private final FrameSlot variableSlot;
+        private final FrameSlot itemsSlot;
+        private final FrameSlot indexSlot;
+        private final ConditionProfile conditionProfile = ConditionProfile.createCountingProfile();
+
+        ForRepeatingNode(FrameSlot variableSlot, FrameSlot itemsSlot, FrameSlot indexSlot, ExpressionNode body) {
+            this.variableSlot = variableSlot;
+            this.itemsSlot = itemsSlot;
+            this.indexSlot = indexSlot;
+            this.body = body;
+        }
+
+        @Override
+        public boolean executeRepeating(VirtualFrame frame) {
+            final var values = (Object[]) FrameUtil.getObjectSafe(frame, itemsSlot);
+            final var index = FrameUtil.getIntSafe(frame, indexSlot);
+            if (conditionProfile.profile(index < values.length)) {
+                frame.setObject(variableSlot, values[index]);
+                frame.setInt(indexSlot, index + 1);
+                body.executeGeneric(frame);
+                return true;
+            }
+            return false;
+        }
+    }
+}
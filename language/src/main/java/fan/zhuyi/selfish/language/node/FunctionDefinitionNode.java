@@ -0,0 +1,29 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.dsl.CachedContext;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.source.Source;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+
+/*
+ * The call target is created once by the parser, running the definition only
+ * binds it to the name in the current context.
+ */
+public abstract class FunctionDefinitionNode extends ExpressionNode {
+    protected final String name;
+    protected final RootCallTarget callTarget;
+
+    FunctionDefinitionNode(Source source, long sourceRange, String name, RootCallTarget callTarget) {
+        super(source, sourceRange);
+        this.name = name;
+        this.callTarget = callTarget;
+    }
+
+    @Specialization
+    public long define(@CachedContext(SelfishLanguage.class) SelfishContext context) {
+        context.defineFunction(name, callTarget);
+        return CommandNode.EXIT_SUCCESS;
+    }
+}
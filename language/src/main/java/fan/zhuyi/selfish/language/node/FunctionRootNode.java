@@ -0,0 +1,86 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.source.SourceSection;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+import fan.zhuyi.selfish.language.runtime.SelfishException;
+import fan.zhuyi.selfish.language.runtime.SelfishFunction;
+import fan.zhuyi.selfish.language.runtime.SelfishRedirection;
+import fan.zhuyi.selfish.language.utils.SelfishProcess;
+
+import java.io.IOException;
+
+/*
+ * Parameters are bound positionally, missing arguments are empty strings.
+ */
+public final class FunctionRootNode extends SelfishRootNode {
+    private final String name;
+
+    @CompilerDirectives.CompilationFinal(dimensions = 1)
+    private final FrameSlot[] parameters;
+
+    @CompilerDirectives.CompilationFinal
+    private TruffleLanguage.ContextReference<SelfishContext> contextReference;
+
+    public FunctionRootNode(SelfishLanguage language, FrameDescriptor descriptor, ExpressionNode body,
+                            SourceSection section, String name, FrameSlot[] parameters) {
+        super(language, descriptor, body, section);
+        this.name = name;
+        this.parameters = parameters;
+    }
+
+    private SelfishContext currentContext() {
+        if (contextReference == null) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            contextReference = lookupContextReference(SelfishLanguage.class);
+        }
+        return contextReference.get();
+    }
+
+    @Override
+    public Object execute(VirtualFrame frame) {
+        final var arguments = frame.getArguments();
+        final var argv = (String[]) arguments[SelfishFunction.ARGUMENT_ARGV];
+        bindParameters(frame, argv);
+        final var redirection = redirect(argv, (SelfishProcess.IOPipe[]) arguments[SelfishFunction.ARGUMENT_PIPES]);
+        try {
+            return super.execute(frame);
+        } finally {
+            restore(argv, redirection);
+        }
+    }
+
+    @ExplodeLoop
+    private void bindParameters(VirtualFrame frame, String[] argv) {
+        for (var i = 0; i < parameters.length; ++i) {
+            frame.setObject(parameters[i], i + 1 < argv.length ? argv[i + 1] : "");
+        }
+    }
+
+    private SelfishRedirection redirect(String[] argv, SelfishProcess.IOPipe[] pipes) {
+        try {
+            return SelfishRedirection.install(currentContext(), pipes);
+        } catch (IOException e) {
+            throw SelfishException.create(argv[0] + ": " + e.getMessage(), this);
+        }
+    }
+
+    private void restore(String[] argv, SelfishRedirection redirection) {
+        try {
+            redirection.close();
+        } catch (IOException e) {
+            throw SelfishException.create(argv[0] + ": " + e.getMessage(), this);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
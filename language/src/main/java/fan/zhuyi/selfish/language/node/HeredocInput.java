@@ -0,0 +1,111 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.frame.MaterializedFrame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * The bytes of a heredoc used as input, encoded a chunk at a time as the reader
+ * gets to them. Text is encoded straight from the source, and an interpolated part
+ * is only evaluated once everything before it has been consumed.
+ */
+final class HeredocInput implements ReadableByteChannel {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final ExpressionNode[] parts;
+    private final MaterializedFrame frame;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private CharBuffer current = CharBuffer.allocate(0);
+    private int next;
+    private boolean streaming;
+    private boolean finished;
+    private boolean open = true;
+
+    HeredocInput(ExpressionNode target, MaterializedFrame frame) {
+        this.parts = target instanceof StringInterpolationNode
+                ? ((StringInterpolationNode) target).stringNodes
+                : new ExpressionNode[]{target};
+        this.frame = frame;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        final var start = dst.position();
+        while (!finished && dst.hasRemaining()) {
+            final var last = next == parts.length;
+            final var stop = !last && streaming && parts[next] instanceof CommandSubstitutionNode;
+            if (encoder.encode(current, dst, last || stop).isOverflow()) {
+                break;
+            }
+            if (stop) {
+                // left to transferTo, which streams it
+                encoder.reset();
+                break;
+            }
+            if (last) {
+                encoder.flush(dst);
+                finished = true;
+            } else {
+                final var text = evaluate(parts[next++]);
+                // a surrogate pair may be split between two parts
+                current = current.hasRemaining() ? CharBuffer.wrap(current.toString() + text) : CharBuffer.wrap(text);
+            }
+        }
+        final var read = dst.position() - start;
+        return read == 0 && finished ? -1 : read;
+    }
+
+    /*
+     * Writes the rest to target. Command substitutions write into it directly
+     * instead of being captured first.
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        streaming = true;
+        final var buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        var total = 0L;
+        while (true) {
+            if (!current.hasRemaining() && next < parts.length && parts[next] instanceof CommandSubstitutionNode) {
+                total += ((CommandSubstitutionNode) parts[next++]).streamTo(frame, target);
+                continue;
+            }
+            if (read(buffer) < 0) {
+                return total;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                total += target.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private CharSequence evaluate(ExpressionNode part) {
+        if (part instanceof SourceTextNode) {
+            return ((SourceTextNode) part).getCharacters();
+        }
+        return String.valueOf(part.executeGeneric(frame));
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
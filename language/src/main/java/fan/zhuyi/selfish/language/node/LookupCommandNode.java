@@ -0,0 +1,35 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.CachedContext;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.nodes.Node;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+import fan.zhuyi.selfish.language.runtime.SelfishFunction;
+
+/*
+ * Resolves a command name without touching the context's tables while nothing was
+ * redefined. The resolution belongs to one context, so it is cached per context.
+ */
+public abstract class LookupCommandNode extends Node {
+    public abstract SelfishFunction executeLookup(String name);
+
+    @Specialization(guards = {"name.equals(cachedName)", "context == cachedContext"},
+            assumptions = "commandsUnchanged", limit = "3")
+    protected static SelfishFunction doCached(String name,
+                                              @CachedContext(SelfishLanguage.class) SelfishContext context,
+                                              @Cached("name") String cachedName,
+                                              @Cached("context") SelfishContext cachedContext,
+                                              @Cached("context.getCommandsUnchanged()") Assumption commandsUnchanged,
+                                              @Cached("context.lookupCommand(name)") SelfishFunction command) {
+        return command;
+    }
+
+    @Specialization(replaces = "doCached")
+    protected static SelfishFunction doLookup(String name,
+                                              @CachedContext(SelfishLanguage.class) SelfishContext context) {
+        return context.lookupCommand(name);
+    }
+}
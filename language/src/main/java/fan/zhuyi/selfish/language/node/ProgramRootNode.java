@@ -0,0 +1,50 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.source.SourceSection;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+
+import java.io.IOException;
+
+/*
+ * The root of a parsed source. Whatever the eval wrote is flushed when it returns,
+ * so an embedder evaluating piece by piece sees output that has no line break yet
+ * without waiting for the context to close.
+ */
+public final class ProgramRootNode extends SelfishRootNode {
+    @CompilerDirectives.CompilationFinal
+    private TruffleLanguage.ContextReference<SelfishContext> contextReference;
+
+    public ProgramRootNode(SelfishLanguage language, FrameDescriptor descriptor, ExpressionNode body, SourceSection section) {
+        super(language, descriptor, body, section);
+    }
+
+    private SelfishContext currentContext() {
+        if (contextReference == null) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            contextReference = lookupContextReference(SelfishLanguage.class);
+        }
+        return contextReference.get();
+    }
+
+    @Override
+    public Object execute(VirtualFrame frame) {
+        try {
+            return super.execute(frame);
+        } finally {
+            flush(currentContext());
+        }
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private static void flush(SelfishContext context) {
+        try {
+            context.getOutput().flush();
+        } catch (IOException ignored) {
+        }
+    }
+}
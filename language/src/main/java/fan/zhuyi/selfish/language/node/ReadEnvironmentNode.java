@@ -0,0 +1,55 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.CachedContext;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.source.Source;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+
+/*
+ * A variable that is not bound in a frame is a shell variable of the context or,
+ * failing that, an environment variable.
+ */
+public abstract class ReadEnvironmentNode extends ExpressionNode {
+    protected final String name;
+
+    ReadEnvironmentNode(Source source, long sourceRange, String name) {
+        super(source, sourceRange);
+        this.name = name;
+    }
+
+    /*
+     * Most variables, the environment in particular, are never written by a script,
+     * so their values are compiled in as constants.
+     */
+    @Specialization(guards = "context == cachedContext", assumptions = "unchanged", limit = "1")
+    public Object readStable(@CachedContext(SelfishLanguage.class) SelfishContext context,
+                             @Cached("context") SelfishContext cachedContext,
+                             @Cached("context.getVariableUnchanged(name)") Assumption unchanged,
+                             @Cached("lookup(context, name)") Object value) {
+        return value;
+    }
+
+    @Specialization(replaces = "readStable")
+    public Object readEnvironment(@CachedContext(SelfishLanguage.class) SelfishContext context) {
+        return lookup(context, name);
+    }
+
+    /*
+     * Final, so the generated node does not replace it with a plain cast.
+     */
+    @Override
+    public final String executeString(VirtualFrame frame) {
+        return SelfishTypesGen.asImplicitString(executeGeneric(frame));
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    static Object lookup(SelfishContext context, String name) {
+        final var value = context.getVariable(name);
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,25 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameUtil;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.source.Source;
+
+public class ReadVariableNode extends ExpressionNode {
+    private final FrameSlot slot;
+
+    public ReadVariableNode(Source source, long sourceRange, FrameSlot slot) {
+        super(source, sourceRange);
+        this.slot = slot;
+    }
+
+    @Override
+    public String executeString(VirtualFrame frame) {
+        return SelfishTypesGen.asImplicitString(executeGeneric(frame));
+    }
+
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        return FrameUtil.getObjectSafe(frame, slot);
+    }
+}
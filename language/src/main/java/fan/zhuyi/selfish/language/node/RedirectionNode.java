@@ -0,0 +1,50 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+import fan.zhuyi.selfish.language.utils.SelfishProcess;
+
+import java.io.FileDescriptor;
+
+public class RedirectionNode extends Node {
+    @Child
+    ExpressionNode target;
+
+    private final int direction;
+    private final Source source;
+    private final long sourceRange;
+
+    public RedirectionNode(Source source, long sourceRange, int direction, ExpressionNode target) {
+        this.source = source;
+        this.sourceRange = sourceRange;
+        this.direction = direction;
+        this.target = target;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    public SelfishProcess.IOPipe execute(VirtualFrame frame, SelfishContext context) {
+        if (direction == SelfishProcess.IOPipe.PIPE_HEREDOC) {
+            // evaluated part by part while the command reads it
+            return new SelfishProcess.ChannelPipe(new HeredocInput(target, frame.materialize()));
+        }
+        return createPipe(context, target.executeString(frame));
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private SelfishProcess.FilePipe createPipe(SelfishContext context, String path) {
+        final var descriptor = direction == SelfishProcess.IOPipe.PIPE_INPUT ? FileDescriptor.in : FileDescriptor.out;
+        return new SelfishProcess.FilePipe(context.resolveFile(path), direction, descriptor);
+    }
+
+    @Override
+    public SourceSection getSourceSection() {
+        return SourceRange.createSection(source, sourceRange);
+    }
+}
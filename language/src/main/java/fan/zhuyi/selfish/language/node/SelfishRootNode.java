@@ -0,0 +1,35 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.RootNode;
+import com.oracle.truffle.api.source.SourceSection;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+
+public class SelfishRootNode extends RootNode {
+    @Child
+    private ExpressionNode body;
+
+    private final SourceSection sourceSection;
+
+    public SelfishRootNode(SelfishLanguage language, FrameDescriptor descriptor, ExpressionNode body, SourceSection section) {
+        super(language, descriptor);
+        this.body = body;
+        this.sourceSection = section;
+    }
+
+    @Override
+    public Object execute(VirtualFrame frame) {
+        return body.executeGeneric(frame);
+    }
+
+    @Override
+    public SourceSection getSourceSection() {
+        return sourceSection;
+    }
+
+    @Override
+    public boolean isCloningAllowed() {
+        return true;
+    }
+}
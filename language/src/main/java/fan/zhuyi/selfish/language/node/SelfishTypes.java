@@ -1,11 +1,19 @@
 package fan.zhuyi.selfish.language.node;
 
+import com.oracle.truffle.api.dsl.ImplicitCast;
 import com.oracle.truffle.api.dsl.TypeSystem;
+import fan.zhuyi.selfish.language.runtime.SelfishString;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
 
-@TypeSystem({long.class, double.class, String.class, BigInteger.class, BigDecimal.class})
+@TypeSystem({long.class, double.class, String.class, SelfishString.class, BigInteger.class, BigDecimal.class})
 public class SelfishTypes {
-
+    /*
+     * Specializations on String take ropes too, flattened on the way in.
+     */
+    @ImplicitCast
+    public static String flatten(SelfishString value) {
+        return value.toString();
+    }
 }
@@ -0,0 +1,37 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+
+/*
+ * Where a node comes from, packed into one long: the offset in the high half and the
+ * length in the low half. Sections are only created when somebody asks for one,
+ * which is rare next to how many nodes a large script has.
+ */
+public final class SourceRange {
+    public static final long NONE = -1L;
+
+    private SourceRange() {
+    }
+
+    public static long of(int start, int length) {
+        return ((long) start << 32) | (length & 0xFFFFFFFFL);
+    }
+
+    public static int getStart(long range) {
+        return (int) (range >>> 32);
+    }
+
+    public static int getLength(long range) {
+        return (int) range;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public static SourceSection createSection(Source source, long range) {
+        if (source == null || range == NONE) {
+            return null;
+        }
+        return source.createSection(getStart(range), getLength(range));
+    }
+}
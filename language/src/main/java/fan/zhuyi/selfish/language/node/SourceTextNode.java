@@ -0,0 +1,46 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.source.Source;
+
+import java.nio.CharBuffer;
+
+/*
+ * A long run of string text without escapes, kept as a range of the source. A
+ * heredoc fed to a command is encoded from there, the String is only made when
+ * something needs the value.
+ */
+public class SourceTextNode extends StringNode {
+    private final int textStart;
+    private final int textEnd;
+    private volatile String literal;
+
+    public SourceTextNode(Source source, long sourceRange, int textStart, int textEnd) {
+        super(source, sourceRange);
+        this.textStart = textStart;
+        this.textEnd = textEnd;
+    }
+
+    public CharSequence getCharacters() {
+        return CharBuffer.wrap(getSourceSection().getSource().getCharacters(), textStart, textEnd);
+    }
+
+    @Override
+    public String executeString(VirtualFrame frame) {
+        final var value = literal;
+        return value == null ? materialize() : value;
+    }
+
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        return executeString(frame);
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private String materialize() {
+        final var value = getCharacters().toString();
+        literal = value;
+        return value;
+    }
+}
@@ -1,30 +1,54 @@
 package fan.zhuyi.selfish.language.node;
 
+import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.nodes.ExplodeLoop;
-import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.api.source.Source;
+import fan.zhuyi.selfish.language.runtime.SelfishString;
 
+/*
+ * Short results are copied into a String, long ones become a rope, so that
+ * "$s$line" does not copy s again.
+ */
 public class StringInterpolationNode extends StringNode {
     @Children
     ExpressionNode[] stringNodes;
 
-    public StringInterpolationNode(SourceSection section, ExpressionNode[] stringNodes) {
-        super(section);
+    public StringInterpolationNode(Source source, long sourceRange, ExpressionNode[] stringNodes) {
+        super(source, sourceRange);
         this.stringNodes = stringNodes;
     }
 
-    @ExplodeLoop
     @Override
     public String executeString(VirtualFrame frame) {
-        var builder = new StringBuilder();
-        for (var i : stringNodes) {
-            builder.append(i.executeString(frame));
-        }
-        return builder.toString();
+        return SelfishTypesGen.asImplicitString(executeGeneric(frame));
     }
 
+    @ExplodeLoop
     @Override
     public Object executeGeneric(VirtualFrame frame) {
-        return executeString(frame);
+        final var parts = new Object[stringNodes.length];
+        var length = 0L;
+        for (var i = 0; i < stringNodes.length; ++i) {
+            parts[i] = stringNodes[i].executeGeneric(frame);
+            length += SelfishString.length(parts[i]);
+        }
+        if (length < SelfishString.MIN_ROPE_LENGTH) {
+            return join(parts);
+        }
+        var result = parts[0];
+        for (var i = 1; i < parts.length; ++i) {
+            result = SelfishString.concat(result, parts[i]);
+        }
+        return result;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private static String join(Object[] parts) {
+        final var builder = new StringBuilder();
+        for (var part : parts) {
+            builder.append(part);
+        }
+        return builder.toString();
     }
 }
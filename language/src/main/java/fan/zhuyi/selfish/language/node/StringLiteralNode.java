@@ -1,13 +1,31 @@
 package fan.zhuyi.selfish.language.node;
 
+import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.frame.VirtualFrame;
-import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.api.source.Source;
 
 public class StringLiteralNode extends StringNode {
     String literal;
 
-    public StringLiteralNode(SourceSection section, String literal) {
-        super(section);
+    /*
+     * Only allocated for the few literals that are ever used as numbers. Immutable,
+     * so threads sharing the node see complete values.
+     */
+    private static final class NumericValue {
+        private final Double doubleValue;
+        private final Long integerValue;
+
+        NumericValue(Double doubleValue, Long integerValue) {
+            this.doubleValue = doubleValue;
+            this.integerValue = integerValue;
+        }
+    }
+
+    @CompilerDirectives.CompilationFinal
+    private NumericValue numeric;
+
+    public StringLiteralNode(Source source, long sourceRange, String literal) {
+        super(source, sourceRange);
         this.literal = literal;
     }
 
@@ -21,4 +39,27 @@ public class StringLiteralNode extends StringNode {
         return executeString(frame);
     }
 
+    @Override
+    public double executeDouble(VirtualFrame frame) {
+        final var value = numeric;
+        if (value == null || value.doubleValue == null) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            final var parsed = parseDouble(literal);
+            numeric = new NumericValue(parsed, value == null ? null : value.integerValue);
+            return parsed;
+        }
+        return value.doubleValue;
+    }
+
+    @Override
+    public long executeInteger(VirtualFrame frame) {
+        final var value = numeric;
+        if (value == null || value.integerValue == null) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            final var parsed = parseInteger(literal);
+            numeric = new NumericValue(value == null ? null : value.doubleValue, parsed);
+            return parsed;
+        }
+        return value.integerValue;
+    }
 }
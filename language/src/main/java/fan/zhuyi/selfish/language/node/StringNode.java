@@ -1,9 +1,9 @@
 package fan.zhuyi.selfish.language.node;
 
-import com.oracle.truffle.api.source.SourceSection;
+import com.oracle.truffle.api.source.Source;
 
 public abstract class StringNode extends ExpressionNode {
-    StringNode(SourceSection section) {
-        super(section);
+    StringNode(Source source, long sourceRange) {
+        super(source, sourceRange);
     }
 }
@@ -0,0 +1,51 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.Node;
+import com.oracle.truffle.api.nodes.RepeatingNode;
+import com.oracle.truffle.api.profiles.ConditionProfile;
+import com.oracle.truffle.api.source.Source;
+
+/*
+ * while <command> { <body> }: runs body as long as command succeeds.
+ */
+public class WhileNode extends ExpressionNode {
+    @Child
+    private LoopNode loop;
+
+    public WhileNode(Source source, long sourceRange, ExpressionNode condition, ExpressionNode body) {
+        super(source, sourceRange);
+        this.loop = Truffle.getRuntime().createLoopNode(new WhileRepeatingNode(condition, body));
+    }
+
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        loop.execute(frame);
+        return CommandNode.EXIT_SUCCESS;
+    }
+
+    private static final class WhileRepeatingNode extends Node implements RepeatingNode {
+        @Child
+        private ExpressionNode condition;
+        @Child
+        private ExpressionNode body;
+
+        private final ConditionProfile conditionProfile = ConditionProfile.createCountingProfile();
+
+        WhileRepeatingNode(ExpressionNode condition, ExpressionNode body) {
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        public boolean executeRepeating(VirtualFrame frame) {
+            if (conditionProfile.profile(CommandNode.isSuccess(condition.executeGeneric(frame)))) {
+                body.executeGeneric(frame);
+                return true;
+            }
+            return false;
+        }
+    }
+}
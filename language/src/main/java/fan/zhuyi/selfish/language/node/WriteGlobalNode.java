@@ -0,0 +1,37 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.dsl.CachedContext;
+import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.source.Source;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.runtime.SelfishContext;
+
+/*
+ * Assignment at the top level of a script, which outlives the statement: scripts
+ * read from standard input are parsed and run one statement at a time.
+ */
+public abstract class WriteGlobalNode extends ExpressionNode {
+    protected final String name;
+
+    @Child
+    protected ExpressionNode value;
+
+    WriteGlobalNode(Source source, long sourceRange, String name, ExpressionNode value) {
+        super(source, sourceRange);
+        this.name = name;
+        this.value = value;
+    }
+
+    @Specialization
+    public long write(VirtualFrame frame, @CachedContext(SelfishLanguage.class) SelfishContext context) {
+        assign(context, name, value.executeGeneric(frame));
+        return CommandNode.EXIT_SUCCESS;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private static void assign(SelfishContext context, String name, Object value) {
+        context.setVariable(name, value);
+    }
+}
@@ -0,0 +1,27 @@
+package fan.zhuyi.selfish.language.node;
+
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.source.Source;
+
+/*
+ * Assignment to a variable of the frame: a loop variable or a local of a function.
+ */
+public class WriteVariableNode extends ExpressionNode {
+    private final FrameSlot slot;
+
+    @Child
+    private ExpressionNode value;
+
+    public WriteVariableNode(Source source, long sourceRange, FrameSlot slot, ExpressionNode value) {
+        super(source, sourceRange);
+        this.slot = slot;
+        this.value = value;
+    }
+
+    @Override
+    public Object executeGeneric(VirtualFrame frame) {
+        frame.setObject(slot, value.executeGeneric(frame));
+        return CommandNode.EXIT_SUCCESS;
+    }
+}
@@ -0,0 +1,125 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.InvalidArrayIndexException;
+import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * What the external commands of a context used, summed up per call site, so it
+ * grows with the script rather than with the number of processes. It is off unless
+ * the ProcessAccounting or the ProcessReport option is set; children are only
+ * sampled while it is on. Other languages see it as an array of SelfishCallSite in
+ * the order the sites first ran a command.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class SelfishAccounting implements TruffleObject {
+    private final Map<String, SelfishCallSite> sites = new HashMap<>();
+    private final List<SelfishCallSite> order = new ArrayList<>();
+    private final boolean enabled;
+
+    public SelfishAccounting(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public void add(String command, String script, String location,
+                    long wallNanos, long cpuNanos, long peakRssKilobytes, int exitStatus, boolean sampled) {
+        site(command, script, location).add(wallNanos, cpuNanos, peakRssKilobytes, exitStatus, sampled);
+    }
+
+    private synchronized SelfishCallSite site(String command, String script, String location) {
+        return sites.computeIfAbsent(location + '\0' + command, key -> {
+            final var site = new SelfishCallSite(command, script, location);
+            order.add(site);
+            return site;
+        });
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public synchronized List<SelfishCallSite> getSites() {
+        return List.copyOf(order);
+    }
+
+    /*
+     * One section per script, each line a call site, the most expensive first. CPU
+     * time and resident set are marked as lower bounds, being sampled.
+     */
+    @CompilerDirectives.TruffleBoundary
+    public String report() {
+        final var scripts = new LinkedHashMap<String, List<SelfishCallSite>>();
+        for (var site : getSites()) {
+            scripts.computeIfAbsent(site.getScript(), key -> new ArrayList<>()).add(site);
+        }
+        final var report = new StringBuilder();
+        for (var script : scripts.entrySet()) {
+            final var sites = script.getValue();
+            sites.sort(Comparator.comparingLong(SelfishCallSite::getWallNanos).reversed());
+            var count = 0L;
+            var failed = 0L;
+            var sampled = 0L;
+            var wallNanos = 0L;
+            var cpuNanos = 0L;
+            var peakRssKilobytes = -1L;
+            for (var site : sites) {
+                count += site.getCount();
+                failed += site.getFailed();
+                sampled += site.getSampled();
+                wallNanos += site.getWallNanos();
+                cpuNanos += site.getCpuNanos();
+                peakRssKilobytes = Math.max(peakRssKilobytes, site.getPeakRssKilobytes());
+            }
+            report.append(String.format("%s: %d processes, %d failed, %d sampled, wall %.1f ms, cpu >= %.1f ms, peak rss >= %s%n",
+                    script.getKey(), count, failed, sampled, wallNanos / 1e6, cpuNanos / 1e6, kilobytes(peakRssKilobytes)));
+            for (var site : sites) {
+                report.append(String.format("  %-24s %6d x %10.1f ms wall %10.1f ms cpu %10s rss %4d failed %4d sampled  %s%n",
+                        site.getLocation(), site.getCount(), site.getWallNanos() / 1e6, site.getCpuNanos() / 1e6,
+                        kilobytes(site.getPeakRssKilobytes()), site.getFailed(), site.getSampled(), site.getCommand()));
+            }
+        }
+        return report.toString();
+    }
+
+    private static String kilobytes(long value) {
+        return value < 0 ? "-" : value + " kB";
+    }
+
+    @ExportMessage
+    boolean hasArrayElements() {
+        return true;
+    }
+
+    @ExportMessage
+    @CompilerDirectives.TruffleBoundary
+    synchronized long getArraySize() {
+        return order.size();
+    }
+
+    @ExportMessage
+    @CompilerDirectives.TruffleBoundary
+    synchronized boolean isArrayElementReadable(long index) {
+        return index >= 0 && index < order.size();
+    }
+
+    @ExportMessage
+    @CompilerDirectives.TruffleBoundary
+    synchronized Object readArrayElement(long index) throws InvalidArrayIndexException {
+        if (!isArrayElementReadable(index)) {
+            throw InvalidArrayIndexException.create(index);
+        }
+        return order.get((int) index);
+    }
+}
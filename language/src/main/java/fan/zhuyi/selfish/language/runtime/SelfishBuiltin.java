@@ -0,0 +1,11 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import java.io.IOException;
+
+/*
+ * A command implemented inside the shell. argv[0] is the name it was invoked with.
+ */
+@FunctionalInterface
+public interface SelfishBuiltin {
+    long execute(SelfishContext context, String[] argv) throws IOException;
+}
@@ -0,0 +1,71 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import fan.zhuyi.selfish.language.utils.SelfishChannels;
+
+import java.io.IOException;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+public final class SelfishBuiltins {
+    private static final Map<String, SelfishBuiltin> BUILTINS = Map.of(
+            "echo", SelfishBuiltins::echo,
+            "cat", SelfishBuiltins::cat,
+            "export", SelfishBuiltins::export
+    );
+
+    private SelfishBuiltins() {
+    }
+
+    public static SelfishBuiltin lookup(String name) {
+        return BUILTINS.get(name);
+    }
+
+    private static long echo(SelfishContext context, String[] argv) throws IOException {
+        final var output = context.getOutput();
+        for (var i = 1; i < argv.length; ++i) {
+            if (i > 1) {
+                output.write(' ');
+            }
+            output.write(argv[i]);
+        }
+        output.newLine();
+        return 0;
+    }
+
+    private static long cat(SelfishContext context, String[] argv) throws IOException {
+        final var output = context.getOutput();
+        if (argv.length == 1) {
+            output.transferFrom(context.getInput());
+            return 0;
+        }
+        for (var i = 1; i < argv.length; ++i) {
+            if (argv[i].equals("-")) {
+                output.transferFrom(context.getInput());
+                continue;
+            }
+            try (var channel = SelfishChannels.open(context.resolveFile(argv[i]), StandardOpenOption.READ)) {
+                output.transferFrom(channel);
+            }
+        }
+        return 0;
+    }
+
+    /*
+     * export NAME=VALUE sets an environment variable, export NAME exports the shell
+     * variable of that name.
+     */
+    private static long export(SelfishContext context, String[] argv) {
+        for (var i = 1; i < argv.length; ++i) {
+            final var separator = argv[i].indexOf('=');
+            if (separator > 0) {
+                context.setEnvironmentVariable(argv[i].substring(0, separator), argv[i].substring(separator + 1));
+                continue;
+            }
+            final var value = context.getVariable(argv[i]);
+            if (value != null) {
+                context.setEnvironmentVariable(argv[i], value.toString());
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,152 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.interop.UnknownIdentifierException;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+
+/*
+ * What the external commands started from one place of a script used together.
+ * Wall time is measured. CPU time and peak resident set are lower bounds: they sum
+ * up, or take the largest of, what the last sample of each child saw, and sampled
+ * says how many children were seen at all. The peak is -1 while none was.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class SelfishCallSite implements TruffleObject {
+    private static final SelfishMembers MEMBERS = new SelfishMembers(
+            "command", "script", "location", "count", "failed", "sampled", "wallMillis", "cpuMillis", "peakRssKilobytes");
+
+    private final String command;
+    private final String script;
+    private final String location;
+    private long count;
+    private long failed;
+    private long sampled;
+    private long wallNanos;
+    private long cpuNanos;
+    private long peakRssKilobytes = -1;
+
+    SelfishCallSite(String command, String script, String location) {
+        this.command = command;
+        this.script = script;
+        this.location = location;
+    }
+
+    synchronized void add(long wall, long cpu, long peakRss, int exitStatus, boolean wasSampled) {
+        count += 1;
+        failed += exitStatus == 0 ? 0 : 1;
+        sampled += wasSampled ? 1 : 0;
+        wallNanos += wall;
+        cpuNanos += Math.max(0, cpu);
+        peakRssKilobytes = Math.max(peakRssKilobytes, peakRss);
+    }
+
+    /*
+     * The name the command was called by.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /*
+     * The name of the source the command was started from.
+     */
+    public String getScript() {
+        return script;
+    }
+
+    /*
+     * Source name, line and column of the command node.
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    public synchronized long getSampled() {
+        return sampled;
+    }
+
+    public synchronized long getWallNanos() {
+        return wallNanos;
+    }
+
+    public synchronized long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    public synchronized long getPeakRssKilobytes() {
+        return peakRssKilobytes;
+    }
+
+    @ExportMessage
+    boolean hasMembers() {
+        return true;
+    }
+
+    @ExportMessage
+    Object getMembers(boolean includeInternal) {
+        return MEMBERS;
+    }
+
+    @ExportMessage
+    @CompilerDirectives.TruffleBoundary
+    boolean isMemberReadable(String member) {
+        switch (member) {
+            case "command":
+            case "script":
+            case "location":
+            case "count":
+            case "failed":
+            case "sampled":
+            case "wallMillis":
+            case "cpuMillis":
+            case "peakRssKilobytes":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @ExportMessage
+    @CompilerDirectives.TruffleBoundary
+    Object readMember(String member) throws UnknownIdentifierException {
+        switch (member) {
+            case "command":
+                return command;
+            case "script":
+                return script;
+            case "location":
+                return location;
+            case "count":
+                return getCount();
+            case "failed":
+                return getFailed();
+            case "sampled":
+                return getSampled();
+            case "wallMillis":
+                return getWallNanos() / 1_000_000;
+            case "cpuMillis":
+                return getCpuNanos() / 1_000_000;
+            case "peakRssKilobytes":
+                return getPeakRssKilobytes();
+            default:
+                throw UnknownIdentifierException.create(member);
+        }
+    }
+
+    @Override
+    @CompilerDirectives.TruffleBoundary
+    public String toString() {
+        return location + ": " + command + " ran " + getCount() + " times for " + getWallNanos() / 1_000_000 + " ms";
+    }
+}
@@ -0,0 +1,100 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/*
+ * The output of a command substitution. Children read straight into the buffer,
+ * which doubles as needed up to the limit, and the text is decoded once, with the
+ * trailing newlines cut off by length instead of by copying.
+ */
+public final class SelfishCapture implements WritableByteChannel {
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    private final int limit;
+    private ByteBuffer buffer;
+    private boolean open = true;
+
+    public SelfishCapture(int limit) {
+        this.limit = limit;
+        this.buffer = ByteBuffer.allocate(Math.min(INITIAL_CAPACITY, limit));
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        final var length = source.remaining();
+        reserve(length);
+        buffer.put(source);
+        return length;
+    }
+
+    /*
+     * Appends everything source yields without going through another buffer. Once
+     * the buffer is full at the limit, only a byte actually read past it is an error.
+     */
+    public long readFrom(ReadableByteChannel source) throws IOException {
+        var total = 0L;
+        while (true) {
+            if (buffer.position() == limit) {
+                final var probe = ByteBuffer.allocate(1);
+                int read;
+                while ((read = source.read(probe)) == 0) {
+                    Thread.onSpinWait();
+                }
+                if (read < 0) {
+                    return total;
+                }
+                throw exceeded();
+            }
+            reserve(1);
+            final var read = source.read(buffer);
+            if (read < 0) {
+                return total;
+            }
+            total += read;
+        }
+    }
+
+    private void reserve(int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        final var required = (long) buffer.position() + length;
+        if (required > limit) {
+            throw exceeded();
+        }
+        final var grown = ByteBuffer.allocate((int) Math.min(limit, Math.max(required, 2L * buffer.capacity())));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    private IOException exceeded() {
+        return new IOException("output of command substitution exceeds " + limit + " bytes");
+    }
+
+    public int size() {
+        return buffer.position();
+    }
+
+    public String decode(Charset charset) {
+        var end = buffer.position();
+        while (end > 0 && buffer.get(end - 1) == '\n') {
+            --end;
+        }
+        return new String(buffer.array(), buffer.arrayOffset(), end, charset);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+}
@@ -1,4 +1,367 @@
 package fan.zhuyi.selfish.language.runtime;
 
-public class SelfishContext {
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.TruffleFile;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.utilities.NeverValidAssumption;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+import fan.zhuyi.selfish.language.utils.SelfishProcess;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Everything that belongs to one running shell lives here, never in the language
+ * or in the AST: the language uses the SHARED context policy, so the same parsed
+ * nodes are executed on behalf of every context of an engine. Several threads may
+ * run in one context, so the state here is safe to share between them, except for
+ * input and output, which every thread has of its own.
+ */
+public final class SelfishContext {
+    private static final int MAX_VARIABLE_WRITES = 2;
+
+    private final SelfishLanguage language;
+    private volatile TruffleLanguage.Env env;
+    private volatile SelfishOutput.FlushPolicy flushPolicy;
+    private volatile String currentWorkingDirectory;
+    private volatile Assumption workingDirectoryUnchanged = Truffle.getRuntime().createAssumption("working directory unchanged");
+    private volatile SelfishEnvironment environment;
+    private volatile ReadableByteChannel standardInput;
+    private final Set<SelfishThreadState> threads = ConcurrentHashMap.newKeySet();
+    private final Set<Process> jobs = ConcurrentHashMap.newKeySet();
+    private final Map<String, Object> variables = new ConcurrentHashMap<>();
+    private final Map<String, SelfishFunction> functions = new HashMap<>();
+    private final Map<String, SelfishFunction> commands = new HashMap<>();
+    private volatile Assumption commandsUnchanged = Truffle.getRuntime().createAssumption("commands unchanged");
+    private final Map<String, Assumption> variablesUnchanged = new HashMap<>();
+    private final Map<String, Integer> variableWrites = new HashMap<>();
+    private volatile SelfishAccounting accounting;
+
+    public SelfishContext(SelfishLanguage language, TruffleLanguage.Env env) {
+        this.language = language;
+        attach(env);
+    }
+
+    /*
+     * A context pre-initialized while building the native image carries the env of
+     * the build machine; everything derived from it is recomputed for the real one.
+     */
+    public void patch(TruffleLanguage.Env newEnv) {
+        assert jobs.isEmpty() : "jobs must not survive context pre-initialization";
+        attach(newEnv);
+        for (var thread : threads) {
+            thread.setOutput(newOutput());
+            thread.setInput(standardInput);
+        }
+    }
+
+    private void attach(TruffleLanguage.Env newEnv) {
+        this.env = newEnv;
+        this.flushPolicy = flushPolicy(newEnv);
+        this.accounting = new SelfishAccounting(newEnv.getOptions().get(SelfishLanguage.PROCESS_ACCOUNTING)
+                                                || newEnv.getOptions().get(SelfishLanguage.PROCESS_REPORT));
+        this.standardInput = Channels.newChannel(newEnv.in());
+        synchronized (this) {
+            this.environment = SelfishEnvironment.of(newEnv.getEnvironment());
+            for (var assumption : variablesUnchanged.values()) {
+                assumption.invalidate();
+            }
+            variablesUnchanged.clear();
+            invalidateCommands();
+            setCurrentWorkingDirectory(initialWorkingDirectory(newEnv));
+        }
+    }
+
+    private SelfishOutput newOutput() {
+        return new SelfishOutput(env.out(), StandardCharsets.UTF_8, flushPolicy);
+    }
+
+    /*
+     * Whatever out() is connected to is hidden by Truffle, only with InheritIO is it
+     * known to be the standard output of the process.
+     */
+    private static SelfishOutput.FlushPolicy flushPolicy(TruffleLanguage.Env env) {
+        final var policy = env.getOptions().get(SelfishLanguage.OUTPUT_FLUSH);
+        if (policy != SelfishOutput.FlushPolicy.AUTO) {
+            return policy;
+        }
+        return env.getOptions().get(SelfishLanguage.INHERIT_IO) && SelfishProcess.isStandardOutputTerminal()
+                ? SelfishOutput.FlushPolicy.LINE
+                : SelfishOutput.FlushPolicy.BLOCK;
+    }
+
+    /*
+     * Called through the language's context thread local for every thread entering
+     * this context.
+     */
+    public SelfishThreadState createThreadState() {
+        final var state = new SelfishThreadState(newOutput(), standardInput);
+        threads.add(state);
+        return state;
+    }
+
+    public void disposeThreadState(SelfishThreadState state) {
+        state.flush();
+        threads.remove(state);
+    }
+
+    private static String initialWorkingDirectory(TruffleLanguage.Env env) {
+        try {
+            return env.getCurrentWorkingDirectory().getPath();
+        } catch (SecurityException | UnsupportedOperationException e) {
+            return Paths.get("").toAbsolutePath().toString();
+        }
+    }
+
+    public SelfishLanguage getLanguage() {
+        return language;
+    }
+
+    public TruffleLanguage.Env getEnv() {
+        return env;
+    }
+
+    private SelfishThreadState currentThread() {
+        return language.getThreadState();
+    }
+
+    public SelfishOutput getOutput() {
+        return currentThread().getOutput();
+    }
+
+    /*
+     * Builtins write to whatever is current, which is how their redirections work.
+     */
+    public void setOutput(SelfishOutput output) {
+        currentThread().setOutput(output);
+    }
+
+    public ReadableByteChannel getInput() {
+        return currentThread().getInput();
+    }
+
+    /*
+     * The input stream of the context, which is what getInput returns unless it is
+     * redirected.
+     */
+    public ReadableByteChannel getStandardInput() {
+        return standardInput;
+    }
+
+    /*
+     * Whether external commands use the standard streams of the JVM directly instead
+     * of those of the context.
+     */
+    public boolean isInheritingIO() {
+        return env.getOptions().get(SelfishLanguage.INHERIT_IO);
+    }
+
+    public void setInput(ReadableByteChannel input) {
+        currentThread().setInput(input);
+    }
+
+    /*
+     * Files of the script go through the context's file system, so they are subject
+     * to its sandbox.
+     */
+    @CompilerDirectives.TruffleBoundary
+    public TruffleFile resolveFile(String path) {
+        return env.getPublicTruffleFile(currentWorkingDirectory).resolve(path);
+    }
+
+    public String getCurrentWorkingDirectory() {
+        return currentWorkingDirectory;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public synchronized void setCurrentWorkingDirectory(String currentWorkingDirectory) {
+        this.currentWorkingDirectory = currentWorkingDirectory;
+        workingDirectoryUnchanged.invalidate();
+        workingDirectoryUnchanged = Truffle.getRuntime().createAssumption("working directory unchanged");
+    }
+
+    /*
+     * Valid as long as getCurrentWorkingDirectory returns the same directory.
+     */
+    public Assumption getWorkingDirectoryUnchanged() {
+        return workingDirectoryUnchanged;
+    }
+
+    public String getCurrentUser() {
+        return environment.get("USER");
+    }
+
+    /*
+     * The snapshot stays as it is when variables are exported later.
+     */
+    public SelfishEnvironment getEnvironment() {
+        return environment;
+    }
+
+    public String getEnvironmentVariable(String name) {
+        return environment.get(name);
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public synchronized void setEnvironmentVariable(String name, String value) {
+        final var updated = environment.with(name, value);
+        if (updated == environment) {
+            return;
+        }
+        environment = updated;
+        variableChanged(name);
+        if (name.equals("PATH")) {
+            invalidateCommands();
+        }
+    }
+
+    /*
+     * Shell variables are assigned at the top level of a script and live as long as
+     * the context. They are not exported, but shadow the environment when read.
+     */
+    @CompilerDirectives.TruffleBoundary
+    public Object getVariable(String name) {
+        final var value = variables.get(name);
+        return value == null ? environment.get(name) : value;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public synchronized void setVariable(String name, Object value) {
+        variables.put(name, value);
+        variableChanged(name);
+    }
+
+    /*
+     * Valid as long as getVariable returns the same value for the name. A variable
+     * written more than a couple of times is not worth compiling as a constant, it
+     * gets an assumption that is never valid instead.
+     */
+    @CompilerDirectives.TruffleBoundary
+    public synchronized Assumption getVariableUnchanged(String name) {
+        return variablesUnchanged.computeIfAbsent(name, key -> variableWrites.getOrDefault(key, 0) > MAX_VARIABLE_WRITES
+                ? NeverValidAssumption.INSTANCE
+                : Truffle.getRuntime().createAssumption(key + " unchanged"));
+    }
+
+    private void variableChanged(String name) {
+        variableWrites.merge(name, 1, Integer::sum);
+        final var assumption = variablesUnchanged.remove(name);
+        if (assumption != null) {
+            assumption.invalidate();
+        }
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public synchronized void defineFunction(String name, RootCallTarget callTarget) {
+        functions.put(name, new SelfishFunction(name, callTarget, null));
+        invalidateCommands();
+    }
+
+    /*
+     * Valid as long as every name resolves to what lookupCommand returned for it.
+     */
+    public Assumption getCommandsUnchanged() {
+        return commandsUnchanged;
+    }
+
+    /*
+     * Functions shadow builtins, builtins shadow executables on the PATH. Returns null
+     * for names that resolve to nothing.
+     */
+    @CompilerDirectives.TruffleBoundary
+    public synchronized SelfishFunction lookupCommand(String name) {
+        var command = commands.get(name);
+        if (command == null) {
+            command = resolveCommand(name);
+            if (command != null) {
+                commands.put(name, command);
+            }
+        }
+        return command;
+    }
+
+    private SelfishFunction resolveCommand(String name) {
+        final var function = functions.get(name);
+        if (function != null) {
+            return function;
+        }
+        final var builtin = language.getBuiltinTarget(name);
+        if (builtin != null) {
+            return new SelfishFunction(name, builtin, null);
+        }
+        final var path = findExecutable(name);
+        return path == null ? null : new SelfishFunction(name, language.getExternalCommandTarget(), path);
+    }
+
+    private String findExecutable(String name) {
+        if (name.indexOf(File.separatorChar) >= 0) {
+            // started from the working directory of the child, like any other shell does
+            return name;
+        }
+        final var searchPath = environment.get("PATH");
+        if (searchPath == null) {
+            return null;
+        }
+        for (var directory : searchPath.split(File.pathSeparator)) {
+            if (directory.isEmpty()) {
+                continue;
+            }
+            try {
+                final var candidate = env.getPublicTruffleFile(directory).resolve(name);
+                if (candidate.isRegularFile() && candidate.isExecutable()) {
+                    return candidate.getPath();
+                }
+            } catch (SecurityException | UnsupportedOperationException | IllegalArgumentException e) {
+                // without access to the file system nothing on the PATH can be found
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void invalidateCommands() {
+        commands.clear();
+        commandsUnchanged.invalidate();
+        commandsUnchanged = Truffle.getRuntime().createAssumption("commands unchanged");
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public void addJob(Process process) {
+        jobs.add(process);
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public void removeJob(Process process) {
+        jobs.remove(process);
+    }
+
+    public SelfishAccounting getAccounting() {
+        return accounting;
+    }
+
+    public void dispose() {
+        for (var thread : threads) {
+            thread.flush();
+        }
+        for (var job : jobs) {
+            job.destroy();
+        }
+        jobs.clear();
+        if (env.getOptions().get(SelfishLanguage.PROCESS_REPORT)) {
+            final var err = new PrintStream(env.err(), true, StandardCharsets.UTF_8);
+            err.print(accounting.report());
+            err.flush();
+        }
+    }
 }
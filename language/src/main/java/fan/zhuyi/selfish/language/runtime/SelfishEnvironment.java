@@ -0,0 +1,95 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import com.oracle.truffle.api.io.TruffleProcessBuilder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * An immutable snapshot of the exported variables. Exporting copies the map once
+ * and publishes a new snapshot, so readers and spawned children never lock and a
+ * snapshot taken for a subshell costs nothing. Environments hold a few dozen
+ * entries and are rarely written, which makes copying cheaper than a tree.
+ */
+public final class SelfishEnvironment {
+    private final Map<String, String> variables;
+    private final Map<String, String> base;
+    private Delta delta;
+
+    private SelfishEnvironment(Map<String, String> variables, Map<String, String> base) {
+        this.variables = variables;
+        this.base = base;
+    }
+
+    /*
+     * The environment of the context, which its children start out with.
+     */
+    public static SelfishEnvironment of(Map<String, String> variables) {
+        final var copy = Collections.unmodifiableMap(new HashMap<>(variables));
+        return new SelfishEnvironment(copy, copy);
+    }
+
+    public String get(String name) {
+        return variables.get(name);
+    }
+
+    public Map<String, String> asMap() {
+        return variables;
+    }
+
+    /*
+     * A null value removes the variable. Returns this when nothing changes.
+     */
+    public SelfishEnvironment with(String name, String value) {
+        if (value == null ? !variables.containsKey(name) : value.equals(variables.get(name))) {
+            return this;
+        }
+        final var copy = new HashMap<>(variables);
+        if (value == null) {
+            copy.remove(name);
+        } else {
+            copy.put(name, value);
+        }
+        return new SelfishEnvironment(Collections.unmodifiableMap(copy), base);
+    }
+
+    /*
+     * Turns the environment a process builder starts with, the one of the context,
+     * into this one. Only what was exported is passed, unless something was removed.
+     * The differences are computed once per snapshot.
+     */
+    public void applyTo(TruffleProcessBuilder builder) {
+        if (variables == base) {
+            return;
+        }
+        var current = delta;
+        if (current == null) {
+            current = new Delta(variables, base);
+            delta = current;
+        }
+        if (current.removed.length > 0) {
+            builder.clearEnvironment(true).environment(variables);
+        } else {
+            builder.environment(current.changed);
+        }
+    }
+
+    private static final class Delta {
+        final String[] removed;
+        final Map<String, String> changed;
+
+        Delta(Map<String, String> variables, Map<String, String> base) {
+            this.removed = base.keySet().stream()
+                    .filter(name -> !variables.containsKey(name))
+                    .toArray(String[]::new);
+            final var differences = new HashMap<String, String>();
+            for (var entry : variables.entrySet()) {
+                if (!entry.getValue().equals(base.get(entry.getKey()))) {
+                    differences.put(entry.getKey(), entry.getValue());
+                }
+            }
+            this.changed = differences;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.exception.AbstractTruffleException;
+import com.oracle.truffle.api.nodes.Node;
+
+public class SelfishException extends AbstractTruffleException {
+
+    public SelfishException(String message, Node location) {
+        super(message, location);
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public static SelfishException create(String message, Node location) {
+        return new SelfishException(message, location);
+    }
+}
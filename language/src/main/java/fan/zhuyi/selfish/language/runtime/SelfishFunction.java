@@ -0,0 +1,55 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.nodes.Node;
+import fan.zhuyi.selfish.language.utils.SelfishProcess;
+
+/*
+ * What a command name resolves to. Every user function has a call target of its
+ * own, all builtins of a name and all external commands share one per language, so
+ * call sites can key their inline cache on the call target.
+ */
+public final class SelfishFunction {
+    public static final int ARGUMENT_ARGV = 0;
+    public static final int ARGUMENT_PIPES = 1;
+    public static final int ARGUMENT_PATH = 2;
+    public static final int ARGUMENT_CALLER = 3;
+
+    private final String name;
+    private final RootCallTarget callTarget;
+    private final String path;
+
+    public SelfishFunction(String name, RootCallTarget callTarget, String path) {
+        this.name = name;
+        this.callTarget = callTarget;
+        this.path = path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public RootCallTarget getCallTarget() {
+        return callTarget;
+    }
+
+    /*
+     * The executable of an external command, null for functions and builtins.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /*
+     * The caller is the command node, which tells where an external command was
+     * started from.
+     */
+    public Object[] createArguments(String[] argv, SelfishProcess.IOPipe[] pipes, Node caller) {
+        return new Object[]{argv, pipes, path, caller};
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
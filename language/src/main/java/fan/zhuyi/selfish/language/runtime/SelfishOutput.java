@@ -0,0 +1,166 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import fan.zhuyi.selfish.language.utils.SelfishChannels;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/*
+ * Output of builtins is encoded into one reusable buffer and handed over in large
+ * writes. The buffer is on heap: Truffle only exposes streams and wrapped channels, so
+ * a direct buffer would add a copy instead of saving one.
+ */
+public final class SelfishOutput implements Flushable {
+    public enum FlushPolicy {
+        /*
+         * Per line when the context writes to the standard output of the process, as
+         * it does with InheritIO, and that is a terminal; by size otherwise.
+         */
+        AUTO,
+        LINE,
+        BLOCK
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream stream;
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer buffer;
+    private final boolean lineFlush;
+
+    /*
+     * AUTO is resolved by the context, which knows where its stream goes.
+     */
+    public SelfishOutput(OutputStream stream, Charset charset, FlushPolicy policy) {
+        this.stream = stream;
+        this.channel = Channels.newChannel(stream);
+        this.encoder = newEncoder(charset);
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.lineFlush = policy == FlushPolicy.LINE;
+    }
+
+    public SelfishOutput(WritableByteChannel channel, Charset charset) {
+        this.stream = null;
+        this.channel = channel;
+        this.encoder = newEncoder(charset);
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.lineFlush = false;
+    }
+
+    /*
+     * Whether this is the output stream of the context rather than a redirection or
+     * a capture.
+     */
+    public boolean isStandard() {
+        return stream != null;
+    }
+
+    /*
+     * Whether this collects a command substitution in memory, so writing to it never
+     * blocks.
+     */
+    public boolean isCapture() {
+        return channel instanceof SelfishCapture;
+    }
+
+    private static CharsetEncoder newEncoder(Charset charset) {
+        return charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public void write(CharSequence text) throws IOException {
+        final var chars = CharBuffer.wrap(text);
+        while (encoder.encode(chars, buffer, false).isOverflow()) {
+            drain();
+        }
+    }
+
+    public void write(char c) throws IOException {
+        if (c < 0x80 && buffer.hasRemaining()) {
+            buffer.put((byte) c);
+        } else {
+            write(String.valueOf(c));
+        }
+    }
+
+    /*
+     * Appends bytes that are encoded already, such as the output of a child.
+     */
+    public void write(ByteBuffer bytes) throws IOException {
+        drain();
+        if (stream != null) {
+            stream.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            bytes.position(bytes.limit());
+        } else {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        if (lineFlush) {
+            flush();
+        }
+    }
+
+    /*
+     * Marks the end of a line, which is where a terminal expects to see output.
+     */
+    public void newLine() throws IOException {
+        write('\n');
+        if (lineFlush) {
+            flush();
+        }
+    }
+
+    /*
+     * Appends the rest of source. A capture reads it straight into its own buffer,
+     * anything else goes through the output buffer.
+     */
+    public long transferFrom(ReadableByteChannel source) throws IOException {
+        drain();
+        final long transferred;
+        if (channel instanceof SelfishCapture) {
+            transferred = ((SelfishCapture) channel).readFrom(source);
+        } else {
+            transferred = SelfishChannels.copy(source, channel, buffer);
+            buffer.clear();
+        }
+        if (lineFlush) {
+            flush();
+        }
+        return transferred;
+    }
+
+    private void drain() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        if (stream != null) {
+            stream.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        } else {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        if (stream != null) {
+            stream.flush();
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Reads the pipes of children on a few threads for the whole process, however many
+ * children there are. This is not a selector and not event driven: the streams of a
+ * Process cannot be registered with one, so each worker polls, sweeping its streams
+ * and reading only what available() says is there, one chunk per stream and sweep,
+ * and parks between 20us and 1ms while nothing arrives. An idle sweep costs one
+ * available() and one isAlive() per stream, so a worker with many quiet children
+ * keeps using some CPU until they are done.
+ *
+ * A worker never blocks, neither on a sink nor on a pipe. It appends to a capture,
+ * which is memory, by itself; for any other sink it queues a few chunks and the
+ * thread that started the child writes them in await. A child writing faster than
+ * that blocks on its full pipe, which the worker stops reading while the queue is
+ * full. Once the child is gone, reading the rest may block for as long as a process
+ * it left behind holds the pipe open, so that is left to a thread of a separate pool,
+ * as is copying to a sink that may block while the caller cannot write for it.
+ */
+public final class SelfishReactor {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_PENDING_CHUNKS = 4;
+    private static final long MIN_IDLE_NANOS = 20_000;
+    private static final long MAX_IDLE_NANOS = 1_000_000;
+    private static final int HANDED_OVER = -1;
+
+    private static final class Holder {
+        static final SelfishReactor INSTANCE =
+                new SelfishReactor(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+    }
+
+    private final Worker[] workers;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    /*
+     * Threads that may block on a pipe or a sink, reused between children and ended
+     * after a minute without work.
+     */
+    private final ExecutorService blocking;
+
+    private SelfishReactor(int threads) {
+        final var blockingThreads = new AtomicInteger();
+        blocking = Executors.newCachedThreadPool(task -> {
+            final var thread = new Thread(task, "selfish-blocking-" + blockingThreads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        workers = new Worker[threads];
+        for (var i = 0; i < threads; ++i) {
+            workers[i] = new Worker("selfish-reactor-" + i, blocking);
+            workers[i].start();
+        }
+    }
+
+    public static SelfishReactor getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /*
+     * Copies everything the child writes to stream into sink until the pipe is at its
+     * end. Unless sink is a capture, the bytes only get there while the calling thread
+     * awaits the drain, so it must not wait for anything else meanwhile.
+     */
+    public Drain drain(Process process, InputStream stream, SelfishOutput sink) {
+        final var drain = new Drain(process, stream, sink, sink.isCapture());
+        workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)].register(drain);
+        return drain;
+    }
+
+    /*
+     * Copies stream into sink on a thread of the blocking pool, for a caller that is
+     * busy feeding the child's input and cannot write the output meanwhile.
+     */
+    public Drain pump(Process process, InputStream stream, SelfishOutput sink) {
+        final var drain = new Drain(process, stream, sink, true);
+        blocking.execute(drain::copyToEnd);
+        return drain;
+    }
+
+    /*
+     * Writes what the drains have queued until all of them are at their end.
+     */
+    public static void await(Drain[] drains) throws IOException, InterruptedException {
+        while (!transfer(drains)) {
+            // unparked as soon as something is queued or a drain ends
+            LockSupport.park();
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /*
+     * Like await, but returns false when timeout milliseconds have passed first.
+     */
+    public static boolean await(Drain[] drains, long timeout) throws IOException, InterruptedException {
+        final var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (!transfer(drains)) {
+            final var remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+
+    private static boolean transfer(Drain[] drains) throws IOException {
+        var done = true;
+        for (var drain : drains) {
+            done &= drain.transfer();
+        }
+        return done;
+    }
+
+    public static final class Drain {
+        private final Process process;
+        private final InputStream stream;
+        private final SelfishOutput sink;
+        private final boolean direct;
+        private final Thread owner = Thread.currentThread();
+        private final BlockingQueue<ByteBuffer> pending = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+        private volatile boolean finished;
+        private volatile Throwable failure;
+
+        private Drain(Process process, InputStream stream, SelfishOutput sink, boolean direct) {
+            this.process = process;
+            this.stream = stream;
+            this.sink = sink;
+            this.direct = direct;
+        }
+
+        /*
+         * Returns the number of bytes read, or HANDED_OVER once the child is gone and
+         * the rest is to be read by a thread that may block.
+         */
+        private int poll(byte[] buffer) throws IOException {
+            if (!direct && pending.size() == MAX_PENDING_CHUNKS) {
+                return 0;
+            }
+            final var available = stream.available();
+            if (available == 0) {
+                return process.isAlive() ? 0 : HANDED_OVER;
+            }
+            final var read = stream.read(buffer, 0, Math.min(available, buffer.length));
+            if (read > 0) {
+                emit(buffer, read, false);
+            }
+            return read;
+        }
+
+        private void emit(byte[] buffer, int length, boolean mayBlock) throws IOException {
+            if (direct) {
+                sink.write(ByteBuffer.wrap(buffer, 0, length));
+                return;
+            }
+            final var chunk = ByteBuffer.wrap(buffer.clone(), 0, length);
+            if (mayBlock) {
+                try {
+                    pending.put(chunk);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException(e.getMessage());
+                }
+            } else {
+                pending.add(chunk);
+            }
+            LockSupport.unpark(owner);
+        }
+
+        /*
+         * Reads until the end of the pipe, blocking as long as that takes.
+         */
+        private void copyToEnd() {
+            final var buffer = new byte[CHUNK_SIZE];
+            try (stream) {
+                int read;
+                while ((read = stream.read(buffer)) >= 0) {
+                    emit(buffer, read, true);
+                }
+                finish(null);
+            } catch (IOException | RuntimeException e) {
+                finish(e);
+            }
+        }
+
+        private void finish(Throwable error) {
+            failure = error;
+            finished = true;
+            LockSupport.unpark(owner);
+        }
+
+        /*
+         * Writes the queued chunks. Returns true at the end of the pipe.
+         */
+        private boolean transfer() throws IOException {
+            writePending();
+            if (!finished) {
+                return false;
+            }
+            // the last chunks are queued before the end is marked
+            writePending();
+            final var error = failure;
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            }
+            if (error != null) {
+                throw (RuntimeException) error;
+            }
+            return true;
+        }
+
+        private void writePending() throws IOException {
+            ByteBuffer chunk;
+            while ((chunk = pending.poll()) != null) {
+                sink.write(chunk);
+            }
+        }
+    }
+
+    private static final class Worker extends Thread {
+        private final Queue<Drain> registered = new ConcurrentLinkedQueue<>();
+        private final ArrayList<Drain> active = new ArrayList<>();
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private final ExecutorService blocking;
+
+        Worker(String name, ExecutorService blocking) {
+            super(name);
+            this.blocking = blocking;
+            setDaemon(true);
+        }
+
+        void register(Drain drain) {
+            registered.add(drain);
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            var idle = MIN_IDLE_NANOS;
+            while (true) {
+                Drain drain;
+                while ((drain = registered.poll()) != null) {
+                    active.add(drain);
+                }
+                if (active.isEmpty()) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                if (sweep()) {
+                    idle = MIN_IDLE_NANOS;
+                } else {
+                    LockSupport.parkNanos(this, idle);
+                    idle = Math.min(2 * idle, MAX_IDLE_NANOS);
+                }
+            }
+        }
+
+        private boolean sweep() {
+            var progress = false;
+            final var iterator = active.iterator();
+            while (iterator.hasNext()) {
+                final var drain = iterator.next();
+                try {
+                    final var read = drain.poll(buffer);
+                    if (read == HANDED_OVER) {
+                        iterator.remove();
+                        blocking.execute(drain::copyToEnd);
+                    }
+                    progress |= read != 0;
+                } catch (IOException | RuntimeException e) {
+                    iterator.remove();
+                    drain.finish(e);
+                }
+            }
+            return progress;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import fan.zhuyi.selfish.language.utils.SelfishProcess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Redirections are served inside the shell: files opened through the context become
+ * its input and output until the call returns. Builtins read and write them directly,
+ * external commands are fed and drained from there.
+ */
+public final class SelfishRedirection implements Closeable {
+    private static final SelfishRedirection NONE = new SelfishRedirection(null, null, null, List.of());
+
+    private final SelfishContext context;
+    private final SelfishOutput previousOutput;
+    private final ReadableByteChannel previousInput;
+    private final List<Closeable> channels;
+
+    private SelfishRedirection(SelfishContext context, SelfishOutput previousOutput,
+                               ReadableByteChannel previousInput, List<Closeable> channels) {
+        this.context = context;
+        this.previousOutput = previousOutput;
+        this.previousInput = previousInput;
+        this.channels = channels;
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    public static SelfishRedirection install(SelfishContext context, SelfishProcess.IOPipe[] pipes) throws IOException {
+        if (pipes.length == 0) {
+            return NONE;
+        }
+        final var redirection = new SelfishRedirection(context, context.getOutput(), context.getInput(),
+                new ArrayList<>(pipes.length));
+        try {
+            for (var pipe : pipes) {
+                if (pipe instanceof SelfishProcess.ChannelPipe) {
+                    final var channel = ((SelfishProcess.ChannelPipe) pipe).getChannel();
+                    redirection.channels.add(channel);
+                    context.setInput(channel);
+                    continue;
+                }
+                final var file = (SelfishProcess.FilePipe) pipe;
+                final var channel = file.openChannel();
+                redirection.channels.add(channel);
+                if (file.getDirection() == SelfishProcess.IOPipe.PIPE_INPUT) {
+                    context.setInput(channel);
+                } else {
+                    context.setOutput(new SelfishOutput(channel, StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException e) {
+            redirection.close();
+            throw e;
+        }
+        return redirection;
+    }
+
+    @Override
+    @CompilerDirectives.TruffleBoundary
+    public void close() throws IOException {
+        if (this == NONE) {
+            return;
+        }
+        try {
+            if (context.getOutput() != previousOutput) {
+                context.getOutput().flush();
+            }
+        } finally {
+            context.setOutput(previousOutput);
+            context.setInput(previousInput);
+            for (var channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.TruffleLanguage;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.interop.UnknownIdentifierException;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+import fan.zhuyi.selfish.language.SelfishLanguage;
+
+/*
+ * The top scope of a context as other languages see it through the polyglot
+ * bindings of selfish. "processes" is the accounting of external commands,
+ * which stays empty unless the ProcessAccounting or ProcessReport option is set.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class SelfishScope implements TruffleObject {
+    private static final String PROCESSES = "processes";
+    private static final SelfishMembers MEMBERS = new SelfishMembers(PROCESSES);
+
+    private final SelfishContext context;
+
+    public SelfishScope(SelfishContext context) {
+        this.context = context;
+    }
+
+    @ExportMessage
+    boolean isScope() {
+        return true;
+    }
+
+    @ExportMessage
+    boolean hasMembers() {
+        return true;
+    }
+
+    @ExportMessage
+    Object getMembers(boolean includeInternal) {
+        return MEMBERS;
+    }
+
+    @ExportMessage
+    @CompilerDirectives.TruffleBoundary
+    boolean isMemberReadable(String member) {
+        return PROCESSES.equals(member);
+    }
+
+    @ExportMessage
+    @CompilerDirectives.TruffleBoundary
+    Object readMember(String member) throws UnknownIdentifierException {
+        if (!PROCESSES.equals(member)) {
+            throw UnknownIdentifierException.create(member);
+        }
+        return context.getAccounting();
+    }
+
+    @ExportMessage
+    boolean hasLanguage() {
+        return true;
+    }
+
+    @ExportMessage
+    Class<? extends TruffleLanguage<?>> getLanguage() {
+        return SelfishLanguage.class;
+    }
+
+    @ExportMessage
+    Object toDisplayString(boolean allowSideEffects) {
+        return "global";
+    }
+}
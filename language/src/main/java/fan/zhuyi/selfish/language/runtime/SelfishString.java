@@ -0,0 +1,135 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.interop.TruffleObject;
+import com.oracle.truffle.api.library.ExportLibrary;
+import com.oracle.truffle.api.library.ExportMessage;
+
+import java.util.ArrayDeque;
+
+/*
+ * A string built by concatenation that has not been needed as a whole yet. Appending
+ * to it costs one node instead of a copy of everything before, so a string grown
+ * line by line in a loop stays linear. It is flattened once, when a process argument,
+ * a comparison or another language needs the characters. It is not interchangeable
+ * with String as a Java object, see equals.
+ */
+@ExportLibrary(InteropLibrary.class)
+public final class SelfishString implements TruffleObject {
+    /*
+     * Below this length copying is cheaper than keeping the pieces apart.
+     */
+    public static final int MIN_ROPE_LENGTH = 256;
+
+    private final int length;
+    /*
+     * The two pieces as an Object[2] until flattened, then the String. One field, so
+     * threads flattening the same rope see either the pieces or the result.
+     */
+    private volatile Object content;
+
+    private SelfishString(Object left, Object right, int length) {
+        this.content = new Object[]{left, right};
+        this.length = length;
+    }
+
+    public static int length(Object value) {
+        return value instanceof SelfishString ? ((SelfishString) value).length : ((String) value).length();
+    }
+
+    /*
+     * Both sides are String or SelfishString.
+     */
+    public static Object concat(Object left, Object right) {
+        final var leftLength = length(left);
+        final var rightLength = length(right);
+        if (leftLength == 0) {
+            return right;
+        }
+        if (rightLength == 0) {
+            return left;
+        }
+        final var length = leftLength + rightLength;
+        if (length < 0) {
+            throw new SelfishException("string too long", null);
+        }
+        if (length < MIN_ROPE_LENGTH) {
+            return concatFlat(left, right);
+        }
+        return new SelfishString(left, right, length);
+    }
+
+    @CompilerDirectives.TruffleBoundary
+    private static String concatFlat(Object left, Object right) {
+        return left.toString().concat(right.toString());
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    @CompilerDirectives.TruffleBoundary
+    public String toString() {
+        final var current = content;
+        if (current instanceof String) {
+            return (String) current;
+        }
+        final var flat = flatten((Object[]) current);
+        content = flat;
+        return flat;
+    }
+
+    /*
+     * Fills the characters from the end, right side first. The ropes a loop builds
+     * lean to the left, so the stack stays short however many pieces there are.
+     */
+    private String flatten(Object[] pieces) {
+        final var chars = new char[length];
+        var end = length;
+        final var pending = new ArrayDeque<Object>();
+        pending.push(pieces[0]);
+        pending.push(pieces[1]);
+        while (!pending.isEmpty()) {
+            final var piece = pending.pop();
+            final var value = piece instanceof SelfishString ? ((SelfishString) piece).content : piece;
+            if (value instanceof Object[]) {
+                final var children = (Object[]) value;
+                pending.push(children[0]);
+                pending.push(children[1]);
+            } else {
+                final var string = (String) value;
+                end -= string.length();
+                string.getChars(0, string.length(), chars, end);
+            }
+        }
+        assert end == 0;
+        return new String(chars);
+    }
+
+    /*
+     * Equal only to another SelfishString with the same characters, never to a
+     * String: String.equals cannot be made to agree. Values that may be either are
+     * converted with toString before they are compared or used as keys.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof SelfishString && toString().equals(obj.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @ExportMessage
+    boolean isString() {
+        return true;
+    }
+
+    @ExportMessage
+    String asString() {
+        return toString();
+    }
+}
@@ -0,0 +1,41 @@
+package fan.zhuyi.selfish.language.runtime;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+ * Input and output are per thread: a redirection replaces them for the duration of
+ * a call, which must not affect other threads running in the same context.
+ */
+public final class SelfishThreadState {
+    private SelfishOutput output;
+    private ReadableByteChannel input;
+
+    SelfishThreadState(SelfishOutput output, ReadableByteChannel input) {
+        this.output = output;
+        this.input = input;
+    }
+
+    SelfishOutput getOutput() {
+        return output;
+    }
+
+    void setOutput(SelfishOutput output) {
+        this.output = output;
+    }
+
+    ReadableByteChannel getInput() {
+        return input;
+    }
+
+    void setInput(ReadableByteChannel input) {
+        this.input = input;
+    }
+
+    void flush() {
+        try {
+            output.flush();
+        } catch (IOException ignored) {
+        }
+    }
+}
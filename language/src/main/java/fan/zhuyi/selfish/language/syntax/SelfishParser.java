@@ -1,22 +1,32 @@
 package fan.zhuyi.selfish.language.syntax;
 
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.FrameSlot;
+import com.oracle.truffle.api.frame.FrameSlotKind;
 import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.api.source.Source;
-import com.oracle.truffle.api.source.SourceSection;
+import fan.zhuyi.selfish.language.SelfishLanguage;
 import fan.zhuyi.selfish.language.node.*;
+import fan.zhuyi.selfish.language.utils.SelfishProcess;
+import fan.zhuyi.selfish.language.utils.SelfishSources;
 
 import java.awt.event.KeyEvent;
-import java.nio.charset.CharsetEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.concurrent.Callable;
 
 public class SelfishParser {
+    private final SelfishLanguage language;
     private final Source source;
     private final CharSequence data;
+    private final SelfishParserTable table;
     private int offset;
     private boolean globalState;
-    private final SelfishParserTable table = new SelfishParserTable();
+    private FrameDescriptor frameDescriptor = new FrameDescriptor("");
+    private ArrayList<HashMap<String, FrameSlot>> scopes = new ArrayList<>();
+    private int slotCounter = 0;
+    private boolean inFunction = false;
 
     public final class SelfishSyntaxError extends Exception {
         private final int errOffset;
@@ -45,9 +55,7 @@ public class SelfishParser {
 
         @Override
         public String getMessage() {
-            return source.getName() + ":"
-                   + source.getLineNumber(this.errOffset)
-                   + ":" + source.getColumnNumber(this.errOffset) + ": " + super.getMessage();
+            return SelfishSources.location(source, this.errOffset) + ": " + super.getMessage();
         }
     }
 
@@ -61,23 +69,38 @@ public class SelfishParser {
 
         @Override
         public String getMessage() {
-            return source.getName() + ":"
-                   + source.getLineNumber(this.errOffset)
-                   + ":" + source.getColumnNumber(this.errOffset) + ": " + super.getMessage();
+            return SelfishSources.location(source, this.errOffset) + ": " + super.getMessage();
         }
     }
 
     public SelfishParser(Source source) {
+        this(null, source);
+    }
+
+    /*
+     * The language owns the roots of functions defined in the source.
+     */
+    public SelfishParser(SelfishLanguage language, Source source) {
+        this.language = language;
         this.source = source;
         offset = 0;
         globalState = true;
         data = source.getCharacters();
+        table = new SelfishParserTable();
+    }
+
+    private long rangeFrom(int start) {
+        return SourceRange.of(start, offset - start);
     }
 
     public boolean isSuccess() {
         return globalState;
     }
 
+    public FrameDescriptor getFrameDescriptor() {
+        return frameDescriptor;
+    }
+
     private char currentChar() throws IndexOutOfBoundsException {
         return data.charAt(offset);
     }
@@ -123,25 +146,93 @@ public class SelfishParser {
         offset += length;
     }
 
-    private void moveNextLine() {
-        var line = source.getLineNumber(offset);
-        var lineStart = source.getLineStartOffset(line);
-        var lineLength = source.getLineLength(line);
-        offset = lineStart + lineLength;
+    /*
+     * A comment runs to the line break, which is found by looking at the characters
+     * rather than through the line table of the source.
+     */
+    private void eatWhitespace() {
+        while (!isEndOfInput()) {
+            final var c = currentChar();
+            if (c == '#') {
+                while (!isEndOfInput() && currentChar() != '\n' && currentChar() != '\r') {
+                    moveNextChar();
+                }
+            } else if (Character.isWhitespace(c)) {
+                moveNextChar();
+            } else {
+                return;
+            }
+        }
     }
 
-    private void eatWhitespace() {
+    private void eatBlank() {
         try {
-            while (Character.isWhitespace(currentChar()) || currentChar() == '#') {
-                if (currentChar() == '#') {
-                    moveNextLine();
-                }
+            while (currentChar() == ' ' || currentChar() == '\t') {
                 moveNextChar();
             }
         } catch (IndexOutOfBoundsException ignored) {
         }
     }
 
+    private boolean isEndOfInput() {
+        return offset >= data.length();
+    }
+
+    private boolean isStatementEnd() {
+        if (isEndOfInput()) {
+            return true;
+        }
+        switch (currentChar()) {
+            case '\n':
+            case '\r':
+            case ';':
+            case '#':
+            case '|':
+            case ')':
+            case '{':
+            case '}':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isWordEnd() {
+        if (isStatementEnd()) {
+            return true;
+        }
+        switch (currentChar()) {
+            case ' ':
+            case '\t':
+            case '<':
+            case '>':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean atKeyword(String keyword) {
+        final var end = offset + keyword.length();
+        if (end > data.length()) {
+            return false;
+        }
+        for (var i = 0; i < keyword.length(); ++i) {
+            if (data.charAt(offset + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return end == data.length() || data.charAt(end) == ' ' || data.charAt(end) == '\t';
+    }
+
+    private void expectKeyword(String keyword) throws SelfishSyntaxError {
+        if (!atKeyword(keyword)) {
+            throw new SelfishSyntaxError("expected " + keyword);
+        }
+        offset += keyword.length();
+        eatBlank();
+    }
+
     private static boolean isPrintableChar(int codepoint) {
         var block = Character.UnicodeBlock.of(codepoint);
         return (!Character.isISOControl(codepoint)) &&
@@ -154,7 +245,6 @@ public class SelfishParser {
     private static final int WILDCARD = 1 << 30;
     private static final int INVALID = 1 << 29;
     private static final int ENDING_HINT = 1 << 28;
-    private static final CharsetEncoder ASCII = StandardCharsets.US_ASCII.newEncoder();
 
     private static int checkCodePoint(int codepoint) {
         switch (codepoint) {
@@ -174,6 +264,10 @@ public class SelfishParser {
             case '|':
             case ';':
             case ')':
+            case '<':
+            case '>':
+            case '}':
+            case '$':
                 return ENDING_HINT;
             default:
                 if (Character.isWhitespace(codepoint)) return ENDING_HINT;
@@ -182,7 +276,7 @@ public class SelfishParser {
                     || isPrintableChar(codepoint)) {
                     return codepoint;
                 }
-                if (Character.isBmpCodePoint(codepoint) && ASCII.canEncode((char) codepoint)) {
+                if (codepoint < 0x80) {
                     return INVALID;
                 }
                 return codepoint;
@@ -246,16 +340,47 @@ public class SelfishParser {
     }
 
 
+    private static final int MIN_SOURCE_TEXT = 4096;
+
+    /*
+     * Text without escapes is only remembered as a range of the source until
+     * something else is appended. Long runs stay that way and become SourceTextNodes,
+     * so a big heredoc is never copied out of the source.
+     */
     private final class StringState {
         private final StringBuilder builder = new StringBuilder();
 
         private final ArrayList<ExpressionNode> nodes = new ArrayList<>();
         private int currentStart = offset;
+        private int textStart = -1;
+        private int textEnd = -1;
 
-        public void submit() {
-            var literal = builder.toString();
+        public void appendText(int start, int end) {
+            if (builder.length() == 0 && (textStart < 0 || textEnd == start)) {
+                textStart = textStart < 0 ? start : textStart;
+                textEnd = end;
+            } else {
+                getBuilder().append(data, start, end);
+            }
+        }
+
+        public boolean hasText() {
+            return textStart >= 0 || builder.length() > 0;
+        }
+
+        private ExpressionNode takeText(long range) {
+            if (textStart >= 0 && textEnd - textStart >= MIN_SOURCE_TEXT) {
+                final var node = new SourceTextNode(source, range, textStart, textEnd);
+                textStart = -1;
+                return node;
+            }
+            final var literal = getBuilder().toString();
             builder.setLength(0);
-            nodes.add(new StringLiteralNode(source.createSection(currentStart, offset - currentStart), literal));
+            return new StringLiteralNode(source, range, literal);
+        }
+
+        public void submit() {
+            nodes.add(takeText(rangeFrom(currentStart)));
             currentStart = offset;
         }
 
@@ -265,18 +390,22 @@ public class SelfishParser {
         }
 
         public StringBuilder getBuilder() {
+            if (textStart >= 0) {
+                builder.append(data, textStart, textEnd);
+                textStart = -1;
+            }
             return builder;
         }
 
-        public StringNode finish(SourceSection section) {
-            if (nodes.isEmpty() && builder.length() > 0) {
-                return new StringLiteralNode(section, builder.toString());
+        public StringNode finish(long range) {
+            if (nodes.isEmpty() && hasText()) {
+                return (StringNode) takeText(range);
             }
             if (!nodes.isEmpty()) {
-                if (builder.length() > 0) {
+                if (hasText()) {
                     submit();
                 }
-                return new StringInterpolationNode(section, nodes.toArray(ExpressionNode[]::new));
+                return new StringInterpolationNode(source, range, nodes.toArray(ExpressionNode[]::new));
             }
             return null;
         }
@@ -296,7 +425,7 @@ public class SelfishParser {
             } else if (lookUp.isNotParsed()) {
                 try {
                     var node = action.call();
-                    table.putSuccess(after, node);
+                    table.putSuccess(after, tag, node, offset);
                     success = true;
                     return node;
                 } catch (SelfishSyntaxError error) {
@@ -307,6 +436,7 @@ public class SelfishParser {
                 }
             } else {
                 success = true;
+                offset = lookUp.getEnd();
                 return (T) lookUp.getNode();
             }
         } finally {
@@ -353,7 +483,7 @@ public class SelfishParser {
                 throw new SelfishSyntaxError("unexpected empty bareword");
             }
             return BarewordNodeGen.create(
-                    source.createSection(start, this.offset - start),
+                    source, rangeFrom(start),
                     builder.toString(),
                     needWildcardExpansion,
                     needTildeExpansion);
@@ -383,11 +513,102 @@ public class SelfishParser {
                 throw new SelfishSyntaxError("unexpected EOI while parsing single quoted string", true);
             }
         }
-        return new StringLiteralNode(source.createSection(start, offset - start), builder.toString());
+        return new StringLiteralNode(source, rangeFrom(start), builder.toString());
+    }
+
+    /*
+     * $(statements), called with the offset on the '('.
+     */
+    private ExpressionNode parseParenExpression() throws SelfishSyntaxError {
+        final var start = offset - 1;
+        final var bodyStart = offset;
+        moveNextChar();
+        final var statements = new ArrayList<ExpressionNode>();
+        while (true) {
+            if (!skipTrivia()) {
+                throw new SelfishSyntaxError("unexpected EOI while parsing command substitution", true);
+            }
+            if (currentChar() == ')') {
+                moveNextChar();
+                break;
+            }
+            statements.add(parseStatement());
+        }
+        final var body = new BlockNode(source, rangeFrom(bodyStart), statements.toArray(ExpressionNode[]::new));
+        return new CommandSubstitutionNode(source, rangeFrom(start), body);
+    }
+
+    private static boolean isNameChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private String parseName() throws SelfishSyntaxError {
+        final var start = offset;
+        while (!isEndOfInput() && isNameChar(currentChar())) {
+            moveNextChar();
+        }
+        if (start == offset) {
+            throw new SelfishSyntaxError("expected variable name");
+        }
+        return data.subSequence(start, offset).toString();
+    }
+
+    private FrameSlot declareVariable(String name) {
+        return declareVariable(name, scopes.get(scopes.size() - 1));
+    }
+
+    private FrameSlot declareVariable(String name, HashMap<String, FrameSlot> scope) {
+        final var identifier = frameDescriptor.findFrameSlot(name) == null ? name : name + "#" + slotCounter++;
+        final var slot = frameDescriptor.addFrameSlot(identifier, FrameSlotKind.Object);
+        scope.put(name, slot);
+        return slot;
+    }
+
+    private FrameSlot addHiddenSlot(String purpose, FrameSlotKind kind) {
+        return frameDescriptor.addFrameSlot("<" + purpose + "#" + slotCounter++ + ">", kind);
+    }
+
+    /*
+     * Names bound by an enclosing loop live in frame slots, everything else is
+     * looked up in the environment.
+     */
+    private ExpressionNode resolveVariable(int start, String name) {
+        final var range = rangeFrom(start);
+        for (var i = scopes.size() - 1; i >= 0; --i) {
+            final var slot = scopes.get(i).get(name);
+            if (slot != null) {
+                return new ReadVariableNode(source, range, slot);
+            }
+        }
+        return ReadEnvironmentNodeGen.create(source, range, name);
+    }
+
+    /*
+     * Called with the offset right behind a '$'.
+     */
+    private ExpressionNode parseDollarExpression() throws SelfishSyntaxError {
+        if (!isEndOfInput() && currentChar() == '(') {
+            return parseParenExpression();
+        }
+        final var start = offset - 1;
+        return resolveVariable(start, parseName());
     }
 
-    private ExpressionNode parseParenExpression() {
-        return null;
+    /*
+     * Plain text between escapes, interpolations and quotes is located in one pass and
+     * copied as a whole, so the escape state machine only runs where it has work to do.
+     */
+    private int scanPlainRun() {
+        final var length = data.length();
+        var end = offset;
+        while (end < length) {
+            final var c = data.charAt(end);
+            if (c == '"' || c == '\\' || c == '$') {
+                break;
+            }
+            end += 1;
+        }
+        return end;
     }
 
     private StringNode doubleQuotedSubroutine(String type, int closeCond) throws SelfishSyntaxError, InternalParserError {
@@ -410,12 +631,17 @@ public class SelfishParser {
                             if (currentChar() == '\\') {
                                 escapeMode = resetEscapeMode(ESCAPE_START);
                             } else if (currentChar() == '$') {
-                                state.submit();
+                                if (state.hasText()) {
+                                    state.submit();
+                                }
                                 moveNextChar();
-                                state.submit(parseParenExpression());
+                                state.submit(parseDollarExpression());
                                 noMove = true;
                             } else {
-                                state.getBuilder().append(currentChar());
+                                final var runEnd = scanPlainRun();
+                                state.appendText(offset, runEnd);
+                                offset = runEnd;
+                                noMove = true;
                             }
                             break;
                         case ESCAPE_START:
@@ -481,7 +707,7 @@ public class SelfishParser {
                         case ESCAPE_OCTAL:
                             if (getEscapeCount(escapeMode) == 3) {
                                 noMove = true;
-                                state.builder.appendCodePoint(getEscapeAccumulator(escapeMode));
+                                state.getBuilder().appendCodePoint(getEscapeAccumulator(escapeMode));
                                 escapeMode = resetEscapeMode(ESCAPE_NONE);
                             } else {
                                 escapeMode = addEscapeOct(escapeMode, currentChar());
@@ -490,7 +716,7 @@ public class SelfishParser {
                         case ESCAPE_HEX:
                             if (getEscapeCount(escapeMode) == 2) {
                                 noMove = true;
-                                state.builder.appendCodePoint(getEscapeAccumulator(escapeMode));
+                                state.getBuilder().appendCodePoint(getEscapeAccumulator(escapeMode));
                                 escapeMode = resetEscapeMode(ESCAPE_NONE);
                             } else {
                                 escapeMode = addEscapeHex(escapeMode, currentChar());
@@ -499,7 +725,7 @@ public class SelfishParser {
                         case ESCAPE_SMALL:
                             if (getEscapeCount(escapeMode) == 4) {
                                 noMove = true;
-                                state.builder.appendCodePoint(getEscapeAccumulator(escapeMode));
+                                state.getBuilder().appendCodePoint(getEscapeAccumulator(escapeMode));
                                 escapeMode = resetEscapeMode(ESCAPE_NONE);
                             } else {
                                 escapeMode = addEscapeHex(escapeMode, currentChar());
@@ -508,7 +734,7 @@ public class SelfishParser {
                         case ESCAPE_LARGE:
                             if (getEscapeCount(escapeMode) == 8) {
                                 noMove = true;
-                                state.builder.appendCodePoint(getEscapeAccumulator(escapeMode));
+                                state.getBuilder().appendCodePoint(getEscapeAccumulator(escapeMode));
                                 escapeMode = resetEscapeMode(ESCAPE_NONE);
                             } else {
                                 escapeMode = addEscapeHex(escapeMode, currentChar());
@@ -528,7 +754,344 @@ public class SelfishParser {
         } catch (IndexOutOfBoundsException e) {
             throw new SelfishSyntaxError("unexpected EOI while parsing " + type, true);
         }
-        return state.finish(source.createSection(start, offset - start));
+        return state.finish(rangeFrom(start));
+    }
+
+    private ExpressionNode parseWordPart() throws SelfishSyntaxError {
+        switch (currentChar()) {
+            case '\'':
+            case '"':
+                return parseString();
+            case '$':
+                moveNextChar();
+                return parseDollarExpression();
+            default:
+                return parseBareword();
+        }
+    }
+
+    /*
+     * Adjacent parts such as prefix$name.txt form a single word.
+     */
+    private ExpressionNode parseWord() throws SelfishSyntaxError {
+        final var start = offset;
+        final var first = parseWordPart();
+        if (isWordEnd()) {
+            return first;
+        }
+        final var parts = new ArrayList<ExpressionNode>();
+        parts.add(first);
+        while (!isWordEnd()) {
+            parts.add(parseWordPart());
+        }
+        return new StringInterpolationNode(source, rangeFrom(start), parts.toArray(ExpressionNode[]::new));
+    }
+
+    private RedirectionNode parseRedirection() throws SelfishSyntaxError {
+        final var start = offset;
+        final int direction;
+        if (currentChar() == '<') {
+            moveNextChar();
+            if (!isEndOfInput() && currentChar() == '<') {
+                // << word, usually a heredoc, is the input itself
+                direction = SelfishProcess.IOPipe.PIPE_HEREDOC;
+                moveNextChar();
+            } else {
+                direction = SelfishProcess.IOPipe.PIPE_INPUT;
+            }
+        } else {
+            moveNextChar();
+            if (!isEndOfInput() && currentChar() == '>') {
+                direction = SelfishProcess.IOPipe.PIPE_APPEND;
+                moveNextChar();
+            } else {
+                direction = SelfishProcess.IOPipe.PIPE_OUTPUT;
+            }
+        }
+        eatBlank();
+        if (isStatementEnd() || currentChar() == '<' || currentChar() == '>') {
+            throw new SelfishSyntaxError("expected redirection target");
+        }
+        final var target = parseWord();
+        return new RedirectionNode(source, rangeFrom(start), direction, target);
+    }
+
+    public CommandNode parseCommand() throws SelfishSyntaxError {
+        return withContext(CommandNode.class, () -> {
+            final var start = offset;
+            final var words = new ArrayList<ExpressionNode>();
+            final var redirections = new ArrayList<RedirectionNode>();
+            while (!isStatementEnd()) {
+                if (currentChar() == '<' || currentChar() == '>') {
+                    redirections.add(parseRedirection());
+                } else {
+                    words.add(parseWord());
+                }
+                eatBlank();
+            }
+            if (words.isEmpty()) {
+                throw new SelfishSyntaxError("expected command");
+            }
+            return new CommandNode(source, rangeFrom(start),
+                    words.toArray(ExpressionNode[]::new),
+                    redirections.toArray(RedirectionNode[]::new));
+        });
+    }
+
+    private BlockNode parseBlock() throws SelfishSyntaxError {
+        if (isEndOfInput()) {
+            throw new SelfishSyntaxError("unexpected EOI while parsing block", true);
+        }
+        if (currentChar() != '{') {
+            throw new SelfishSyntaxError("expected {");
+        }
+        final var start = offset;
+        moveNextChar();
+        final var statements = new ArrayList<ExpressionNode>();
+        while (true) {
+            if (!skipTrivia()) {
+                throw new SelfishSyntaxError("unexpected EOI while parsing block", true);
+            }
+            if (currentChar() == '}') {
+                moveNextChar();
+                break;
+            }
+            statements.add(parseStatement());
+        }
+        return new BlockNode(source, rangeFrom(start), statements.toArray(ExpressionNode[]::new));
+    }
+
+    private void pushScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    private void popScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private WhileNode parseWhile() throws SelfishSyntaxError {
+        final var start = offset;
+        expectKeyword("while");
+        final var condition = parseCommand();
+        eatBlank();
+        final var body = parseBlock();
+        return new WhileNode(source, rangeFrom(start), condition, body);
+    }
+
+    private ForNode parseFor() throws SelfishSyntaxError {
+        final var start = offset;
+        expectKeyword("for");
+        final var variable = parseName();
+        eatBlank();
+        expectKeyword("in");
+        final var items = new ArrayList<ExpressionNode>();
+        while (!isStatementEnd()) {
+            items.add(parseWord());
+            eatBlank();
+        }
+        pushScope();
+        try {
+            final var variableSlot = declareVariable(variable);
+            final var body = parseBlock();
+            return new ForNode(source, rangeFrom(start),
+                    variableSlot,
+                    addHiddenSlot("for-items", FrameSlotKind.Object),
+                    addHiddenSlot("for-index", FrameSlotKind.Int),
+                    items.toArray(ExpressionNode[]::new),
+                    body);
+        } finally {
+            popScope();
+        }
+    }
+
+    private EachNode parseEach() throws SelfishSyntaxError {
+        final var start = offset;
+        expectKeyword("each");
+        final var variable = parseName();
+        eatBlank();
+        if (isEndOfInput() || currentChar() != '<') {
+            throw new SelfishSyntaxError("expected < after the variable of each");
+        }
+        moveNextChar();
+        eatBlank();
+        if (isWordEnd()) {
+            throw new SelfishSyntaxError("expected file to iterate over");
+        }
+        final var path = parseWord();
+        eatBlank();
+        pushScope();
+        try {
+            final var variableSlot = declareVariable(variable);
+            final var body = parseBlock();
+            return new EachNode(source, rangeFrom(start),
+                    variableSlot,
+                    addHiddenSlot("each-reader", FrameSlotKind.Object),
+                    path,
+                    body);
+        } finally {
+            popScope();
+        }
+    }
+
+    private String parseFunctionName() throws SelfishSyntaxError {
+        final var start = offset;
+        while (!isEndOfInput() && (isNameChar(currentChar()) || currentChar() == '-')) {
+            moveNextChar();
+        }
+        if (start == offset) {
+            throw new SelfishSyntaxError("expected function name");
+        }
+        return data.subSequence(start, offset).toString();
+    }
+
+    /*
+     * A function body gets a frame of its own and sees its parameters only.
+     */
+    private FunctionDefinitionNode parseFunction() throws SelfishSyntaxError {
+        final var start = offset;
+        expectKeyword("fn");
+        final var name = parseFunctionName();
+        eatBlank();
+        final var parameters = new ArrayList<String>();
+        while (!isStatementEnd()) {
+            parameters.add(parseName());
+            eatBlank();
+        }
+        final var outerDescriptor = frameDescriptor;
+        final var outerScopes = scopes;
+        final var outerInFunction = inFunction;
+        inFunction = true;
+        frameDescriptor = new FrameDescriptor("");
+        scopes = new ArrayList<>();
+        pushScope();
+        try {
+            final var slots = new FrameSlot[parameters.size()];
+            for (var i = 0; i < slots.length; ++i) {
+                slots[i] = declareVariable(parameters.get(i));
+            }
+            final var body = parseBlock();
+            final var root = new FunctionRootNode(language, frameDescriptor, body,
+                    source.createSection(start, offset - start), name, slots);
+            return FunctionDefinitionNodeGen.create(source, rangeFrom(start), name, Truffle.getRuntime().createCallTarget(root));
+        } finally {
+            frameDescriptor = outerDescriptor;
+            scopes = outerScopes;
+            inFunction = outerInFunction;
+        }
+    }
+
+    /*
+     * name = word, with blanks around the '=' so that it cannot be an argument.
+     */
+    private boolean atAssignment() {
+        var i = offset;
+        while (i < data.length() && isNameChar(data.charAt(i))) {
+            i += 1;
+        }
+        if (i == offset || i == data.length() || (data.charAt(i) != ' ' && data.charAt(i) != '\t')) {
+            return false;
+        }
+        while (i < data.length() && (data.charAt(i) == ' ' || data.charAt(i) == '\t')) {
+            i += 1;
+        }
+        if (i == data.length() || data.charAt(i) != '=') {
+            return false;
+        }
+        i += 1;
+        return i == data.length() || data.charAt(i) == ' ' || data.charAt(i) == '\t';
+    }
+
+    /*
+     * Assigns the variable in scope if there is one. Otherwise a function gets a new
+     * local and the top level a shell variable of the context.
+     */
+    private ExpressionNode parseAssignment() throws SelfishSyntaxError {
+        final var start = offset;
+        final var name = parseName();
+        eatBlank();
+        moveNextChar();
+        eatBlank();
+        final var value = isStatementEnd() ? new StringLiteralNode(source, SourceRange.of(offset, 0), "") : parseWord();
+        for (var i = scopes.size() - 1; i >= 0; --i) {
+            final var slot = scopes.get(i).get(name);
+            if (slot != null) {
+                return new WriteVariableNode(source, rangeFrom(start), slot, value);
+            }
+        }
+        if (inFunction) {
+            return new WriteVariableNode(source, rangeFrom(start), declareVariable(name, scopes.get(0)), value);
+        }
+        return WriteGlobalNodeGen.create(source, rangeFrom(start), name, value);
+    }
+
+    /*
+     * Parses one statement together with its terminator, if any.
+     */
+    public ExpressionNode parseStatement() throws SelfishSyntaxError {
+        eatWhitespace();
+        final ExpressionNode statement;
+        if (atKeyword("while")) {
+            statement = parseWhile();
+        } else if (atKeyword("for")) {
+            statement = parseFor();
+        } else if (atKeyword("each")) {
+            statement = parseEach();
+        } else if (atKeyword("fn")) {
+            statement = parseFunction();
+        } else if (atAssignment()) {
+            statement = parseAssignment();
+        } else {
+            statement = parseCommand();
+        }
+        eatBlank();
+        if (!isEndOfInput()) {
+            switch (currentChar()) {
+                case ';':
+                case '\n':
+                case '\r':
+                    moveNextChar();
+                    break;
+                case '#':
+                case '}':
+                case ')':
+                    break;
+                default:
+                    throw new SelfishSyntaxError("unexpected character: " + currentChar());
+            }
+        }
+        return statement;
+    }
+
+    /*
+     * Skips whitespace and comments, returns whether there is anything left to parse.
+     */
+    public boolean skipTrivia() {
+        eatWhitespace();
+        return !isEndOfInput();
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    SelfishParserTable getTable() {
+        return table;
+    }
+
+    /*
+     * Cuts the memo table behind every top-level statement, so its size follows the
+     * largest statement rather than the script.
+     */
+    public BlockNode parseProgram() throws SelfishSyntaxError {
+        final var statements = new ArrayList<ExpressionNode>();
+        while (skipTrivia()) {
+            if (currentChar() == '}') {
+                throw new SelfishSyntaxError("unexpected character: }");
+            }
+            statements.add(parseStatement());
+            table.cut(offset);
+        }
+        return new BlockNode(source, SourceRange.of(0, data.length()), statements.toArray(ExpressionNode[]::new));
     }
 
     public StringNode parseString() throws SelfishSyntaxError {
@@ -544,9 +1107,9 @@ public class SelfishParser {
                 }
                 switch (count) {
                     case 2:
-                        return new StringLiteralNode(source.createSection(offset - 2, 2), "");
+                        return new StringLiteralNode(source, SourceRange.of(offset - 2, 2), "");
                     case 6:
-                        return new StringLiteralNode(source.createSection(offset - 6, 6), "");
+                        return new StringLiteralNode(source, SourceRange.of(offset - 6, 6), "");
                     case 3:
                         return doubleQuotedSubroutine("heredoc", 3);
                     case 1:
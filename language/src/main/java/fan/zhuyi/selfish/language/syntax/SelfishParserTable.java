@@ -1,30 +1,39 @@
 package fan.zhuyi.selfish.language.syntax;
 
 import com.oracle.truffle.api.nodes.Node;
-import org.graalvm.collections.Pair;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 
+/*
+ * Memo of the packrat parser, by offset and rule. Entries behind a cut point can
+ * never be looked up again and are dropped, so the table only holds the statement
+ * being parsed.
+ */
 public class SelfishParserTable {
 
     public final static class ParsedState {
 
         final static ParsedState NOT_PARSED = new ParsedState();
         private final Node node;
+        private final int end;
         private final SelfishParser.SelfishSyntaxError error;
 
         private ParsedState() {
             this.node = null;
+            this.end = -1;
             this.error = null;
         }
 
-        public ParsedState(Node node) {
+        public ParsedState(Node node, int end) {
             this.node = node;
+            this.end = end;
             this.error = null;
         }
 
         public ParsedState(SelfishParser.SelfishSyntaxError error) {
             this.node = null;
+            this.end = -1;
             this.error = error;
         }
 
@@ -44,19 +53,125 @@ public class SelfishParserTable {
             return node;
         }
 
+        /*
+         * Where the parser continues after a successful parse.
+         */
+        int getEnd() {
+            return end;
+        }
+
+    }
+
+    private static final int RULES = 4;
+    private static final int MIN_CAPACITY = 64;
+    private static final int EMPTY = -1;
+
+    private final ArrayList<Class<?>> tags = new ArrayList<>(RULES);
+    /*
+     * Open addressing with linear probing, keyed by offset * RULES + rule. Keys are
+     * kept in a long array, so a lookup touches no boxed integer or tree node.
+     */
+    private long[] keys = newKeys(MIN_CAPACITY);
+    private ParsedState[] states = new ParsedState[MIN_CAPACITY];
+    private int size;
+
+    private static long[] newKeys(int capacity) {
+        final var keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private int rule(Class<?> tag) {
+        var rule = tags.indexOf(tag);
+        if (rule < 0) {
+            if (tags.size() == RULES) {
+                throw new IllegalStateException("too many memoized rules");
+            }
+            rule = tags.size();
+            tags.add(tag);
+        }
+        return rule;
+    }
+
+    private static long key(int offset, int rule) {
+        return (long) offset * RULES + rule;
     }
 
-    private final HashMap<Pair<Class<?>, Integer>, ParsedState> cache = new HashMap<>();
+    private int slot(long key) {
+        final var mask = keys.length - 1;
+        var slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
 
     public ParsedState check(int offset, Class<?> tag) {
-        return cache.getOrDefault(Pair.create(tag, offset), ParsedState.NOT_PARSED);
+        final var slot = slot(key(offset, rule(tag)));
+        return keys[slot] == EMPTY ? ParsedState.NOT_PARSED : states[slot];
+    }
+
+    private void put(int offset, Class<?> tag, ParsedState state) {
+        final var key = key(offset, rule(tag));
+        var slot = slot(key);
+        if (keys[slot] == EMPTY) {
+            if (2 * (size + 1) > keys.length) {
+                rehash(keys.length * 2, 0);
+                slot = slot(key);
+            }
+            keys[slot] = key;
+            size += 1;
+        }
+        states[slot] = state;
     }
 
-    public void putSuccess(int offset, Node node) {
-        cache.put(Pair.create(node.getClass(), offset), new ParsedState(node));
+    public void putSuccess(int offset, Class<?> tag, Node node, int end) {
+        put(offset, tag, new ParsedState(node, end));
     }
 
     public void putFailure(int offset, Class<?> tag, SelfishParser.SelfishSyntaxError error) {
-        cache.put(Pair.create(tag, offset), new ParsedState(error));
+        put(offset, tag, new ParsedState(error));
+    }
+
+    /*
+     * Commits to everything before offset: the parser will not backtrack behind it.
+     * What is left moves to a table sized for it, so a large statement does not make
+     * every later cut slow.
+     */
+    public void cut(int offset) {
+        final var first = key(offset, 0);
+        var kept = 0;
+        for (var key : keys) {
+            if (key != EMPTY && key >= first) {
+                kept += 1;
+            }
+        }
+        var capacity = MIN_CAPACITY;
+        while (capacity < 2 * kept) {
+            capacity *= 2;
+        }
+        if (kept < size || capacity < keys.length) {
+            rehash(capacity, first);
+        }
+    }
+
+    private void rehash(int capacity, long first) {
+        final var oldKeys = keys;
+        final var oldStates = states;
+        keys = newKeys(capacity);
+        states = new ParsedState[capacity];
+        size = 0;
+        for (var i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY && oldKeys[i] >= first) {
+                final var slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                states[slot] = oldStates[i];
+                size += 1;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
     }
 }
@@ -0,0 +1,354 @@
+package fan.zhuyi.selfish.language.syntax;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/*
+ * Cuts a script arriving on a channel into top-level statements as soon as each of
+ * them is complete, so that it can run before the rest of the script has been read.
+ * Only the statement being assembled is kept in memory.
+ *
+ * The reader does not parse. It follows quotes, substitutions and braces by the
+ * parser's rules and resumes where the previous read stopped, so each character is
+ * looked at once and a statement is parsed only when it is evaluated. A statement
+ * ends at a line break or ';' outside of all of them; one the parser rejects is cut
+ * there too and evaluation reports the error.
+ */
+public final class SelfishStatementReader implements Closeable {
+    private static final int BYTE_BUFFER_SIZE = 64 * 1024;
+    private static final int CHAR_BUFFER_SIZE = 16 * 1024;
+
+    /*
+     * What the scan is nested in. A positive value is a double quoted string closed by
+     * that many quotes.
+     */
+    private static final int BRACE = -1;
+    private static final int SUBSTITUTION = -2;
+    private static final int SINGLE_QUOTED = -3;
+
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+    private CharBuffer pending = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    private boolean endOfInput = false;
+
+    /*
+     * Offsets into pending: where the statement being assembled starts, how far it has
+     * been scanned and where a comment in it starts, or -1.
+     */
+    private int start;
+    private int scanned;
+    private int comment = -1;
+    private int[] nesting = new int[8];
+    private int depth;
+    private boolean started;
+    private boolean inWord;
+    private boolean inName;
+    /*
+     * The line of the character at start, and the line the last statement returned
+     * starts on.
+     */
+    private int line = 1;
+    private int statementLine;
+
+    public SelfishStatementReader(ReadableByteChannel channel, Charset charset) {
+        this.channel = channel;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /*
+     * Returns the source text of the next complete statement, or null once the
+     * channel is exhausted.
+     */
+    public String nextStatement() throws IOException {
+        while (true) {
+            final var end = scan();
+            if (end > 0) {
+                return release(end);
+            }
+            if (endOfInput) {
+                if (!started) {
+                    start = pending.position();
+                    return null;
+                }
+                return release(pending.position());
+            }
+            fill();
+        }
+    }
+
+    /*
+     * The line of the source the last statement returned starts on, counting from 1.
+     */
+    public int getLine() {
+        return statementLine;
+    }
+
+    /*
+     * The end of the statement, or 0 if more input is needed. Whitespace and comments
+     * on lines of their own are skipped.
+     */
+    private int scan() {
+        final var length = pending.position();
+        while (scanned < length) {
+            final var at = scanned;
+            final var c = pending.get(at);
+            if (comment >= 0) {
+                if (c != '\n' && c != '\r') {
+                    scanned = at + 1;
+                    continue;
+                }
+                if (depth == 0 && started) {
+                    return comment;
+                }
+                comment = -1;
+            }
+            final var mode = depth == 0 ? 0 : nesting[depth - 1];
+            final int next;
+            if (mode == SINGLE_QUOTED) {
+                next = scanSingleQuoted(at, length);
+            } else if (mode > 0) {
+                next = scanDoubleQuoted(at, length, mode);
+            } else if (Character.isWhitespace(c)) {
+                inWord = false;
+                inName = false;
+                if (depth == 0 && (c == '\n' || c == '\r')) {
+                    if (started) {
+                        return at + 1;
+                    }
+                    start = at + 1;
+                    line += c == '\n' ? 1 : 0;
+                }
+                next = at + 1;
+            } else if (c == '#' && !inWord) {
+                inName = false;
+                comment = at;
+                next = at + 1;
+            } else {
+                started = true;
+                if (depth == 0 && c == ';') {
+                    return at + 1;
+                }
+                next = scanStatement(at, length, c);
+            }
+            if (next < 0) {
+                return 0;
+            }
+            scanned = next;
+        }
+        return 0;
+    }
+
+    /*
+     * Returns where to go on, or -1 if the character cannot be told apart before
+     * more input arrives.
+     */
+    private int scanStatement(int at, int length, char c) {
+        if (inName) {
+            if (isNameChar(c)) {
+                return at + 1;
+            }
+            inName = false;
+        }
+        switch (c) {
+            case '{':
+                if (!inWord) {
+                    push(BRACE);
+                }
+                return at + 1;
+            case '}':
+                inWord = false;
+                if (depth > 0 && nesting[depth - 1] == BRACE) {
+                    depth -= 1;
+                }
+                return at + 1;
+            case ')':
+                inWord = false;
+                if (depth > 0 && nesting[depth - 1] == SUBSTITUTION) {
+                    depth -= 1;
+                }
+                return at + 1;
+            case ';':
+            case '|':
+            case '<':
+            case '>':
+                inWord = false;
+                return at + 1;
+            case '$':
+                inWord = false;
+                return scanDollar(at, length);
+            case '\'':
+                if (!inWord) {
+                    push(SINGLE_QUOTED);
+                }
+                return at + 1;
+            case '"':
+                if (!inWord) {
+                    return scanQuotes(at, length);
+                }
+                return at + 1;
+            default:
+                inWord = true;
+                return at + 1;
+        }
+    }
+
+    private int scanDollar(int at, int length) {
+        if (at + 1 == length && !endOfInput) {
+            return -1;
+        }
+        if (at + 1 < length && pending.get(at + 1) == '(') {
+            push(SUBSTITUTION);
+            return at + 2;
+        }
+        inName = true;
+        return at + 1;
+    }
+
+    /*
+     * One or three quotes open a string, any other number is a string of its own.
+     */
+    private int scanQuotes(int at, int length) {
+        var end = at;
+        while (end < length && pending.get(end) == '"') {
+            end += 1;
+        }
+        if (end == length && !endOfInput) {
+            return -1;
+        }
+        final var quotes = end - at;
+        if (quotes == 1 || quotes == 3) {
+            push(quotes);
+        }
+        return end;
+    }
+
+    private int scanSingleQuoted(int at, int length) {
+        if (pending.get(at) != '\'') {
+            return at + 1;
+        }
+        if (at + 1 == length && !endOfInput) {
+            return -1;
+        }
+        if (at + 1 < length && pending.get(at + 1) == '\'') {
+            return at + 2;
+        }
+        depth -= 1;
+        return at + 1;
+    }
+
+    private int scanDoubleQuoted(int at, int length, int closing) {
+        switch (pending.get(at)) {
+            case '\\':
+                if (at + 1 == length && !endOfInput) {
+                    return -1;
+                }
+                return Math.min(length, at + 2);
+            case '$':
+                if (at + 1 == length && !endOfInput) {
+                    return -1;
+                }
+                if (at + 1 < length && pending.get(at + 1) == '(') {
+                    push(SUBSTITUTION);
+                    return at + 2;
+                }
+                return at + 1;
+            case '"':
+                var quotes = 0;
+                while (quotes < closing && at + quotes < length && pending.get(at + quotes) == '"') {
+                    quotes += 1;
+                }
+                if (quotes == closing) {
+                    depth -= 1;
+                    return at + closing;
+                }
+                if (at + quotes == length && !endOfInput) {
+                    return -1;
+                }
+                return at + 1;
+            default:
+                return at + 1;
+        }
+    }
+
+    private void push(int mode) {
+        if (depth == nesting.length) {
+            nesting = Arrays.copyOf(nesting, depth * 2);
+        }
+        nesting[depth++] = mode;
+        inWord = false;
+    }
+
+    private static boolean isNameChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private String release(int end) {
+        final var statement = pending.duplicate().flip().subSequence(start, end).toString();
+        statementLine = line;
+        for (var i = 0; i < statement.length(); ++i) {
+            line += statement.charAt(i) == '\n' ? 1 : 0;
+        }
+        start = end;
+        scanned = end;
+        comment = -1;
+        depth = 0;
+        started = false;
+        inWord = false;
+        inName = false;
+        return statement;
+    }
+
+    /*
+     * Drops what has been released or skipped before reading more, so pending only
+     * ever holds the statement being assembled and what follows it.
+     */
+    private void fill() throws IOException {
+        if (start > 0) {
+            pending.flip().position(start);
+            pending.compact();
+            scanned -= start;
+            if (comment >= 0) {
+                comment -= start;
+            }
+            start = 0;
+        }
+        if (channel.read(bytes) < 0) {
+            endOfInput = true;
+        }
+        bytes.flip();
+        while (decoder.decode(bytes, pending, endOfInput).isOverflow()) {
+            grow();
+        }
+        if (endOfInput) {
+            while (decoder.flush(pending).isOverflow()) {
+                grow();
+            }
+        }
+        bytes.compact();
+    }
+
+    /*
+     * Grows only when a decoded chunk does not fit next to the statement being assembled.
+     */
+    private void grow() {
+        final var grown = CharBuffer.allocate(pending.capacity() * 2);
+        pending.flip();
+        grown.put(pending);
+        pending = grown;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,46 @@
+package fan.zhuyi.selfish.language.utils;
+
+import com.oracle.truffle.api.TruffleFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.OpenOption;
+import java.util.Set;
+
+public final class SelfishChannels {
+    private SelfishChannels() {
+    }
+
+    /*
+     * Files are opened through the context's file system, which refuses when IO is not
+     * allowed; that is reported like any other failure to open.
+     */
+    public static SeekableByteChannel open(TruffleFile file, OpenOption... options) throws IOException {
+        try {
+            return file.newByteChannel(Set.of(options));
+        } catch (SecurityException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Copies through one buffer, reused for the whole copy. There is no transferTo
+     * path: files come through TruffleFile, whose channels are never FileChannels, so
+     * the kernel cannot be asked to move the data.
+     */
+    public static long copy(ReadableByteChannel source, WritableByteChannel target, ByteBuffer buffer) throws IOException {
+        var total = 0L;
+        buffer.clear();
+        while (source.read(buffer) >= 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                total += target.write(buffer);
+            }
+            buffer.clear();
+        }
+        return total;
+    }
+}
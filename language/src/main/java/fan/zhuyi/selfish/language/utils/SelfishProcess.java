@@ -1,7 +1,16 @@
 package fan.zhuyi.selfish.language.utils;
 
-import java.io.File;
+import com.oracle.truffle.api.TruffleFile;
+
 import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
 
 public class SelfishProcess {
     /*
@@ -11,6 +20,7 @@ public class SelfishProcess {
         public static final int PIPE_INPUT = 0;
         public static final int PIPE_OUTPUT = 1;
         public static final int PIPE_APPEND = 23;
+        public static final int PIPE_HEREDOC = 2;
         protected final int direction;
         protected final FileDescriptor sourceDescriptor;
 
@@ -19,53 +29,210 @@ public class SelfishProcess {
             this.sourceDescriptor = sourceDescriptor;
         }
 
-        public abstract ProcessBuilder.Redirect getRedirect();
+        public int getDirection() {
+            return direction;
+        }
+
+        public FileDescriptor getSourceDescriptor() {
+            return sourceDescriptor;
+        }
     }
 
     public static class FilePipe extends IOPipe {
-        private final File file;
+        private final TruffleFile file;
 
-        public FilePipe(File file, int direction, FileDescriptor sourceDescriptor) {
+        public FilePipe(TruffleFile file, int direction, FileDescriptor sourceDescriptor) {
             super(direction, sourceDescriptor);
             this.file = file;
         }
 
-        @Override
-        public ProcessBuilder.Redirect getRedirect() {
+        public TruffleFile getFile() {
+            return file;
+        }
+
+        /*
+         * For redirections served inside the shell, opened through the context so
+         * its sandbox applies.
+         */
+        public SeekableByteChannel openChannel() throws IOException {
             switch (direction) {
                 case PIPE_INPUT:
-                    return ProcessBuilder.Redirect.from(file);
+                    return SelfishChannels.open(file, StandardOpenOption.READ);
                 case PIPE_APPEND:
-                    return ProcessBuilder.Redirect.appendTo(file);
+                    return SelfishChannels.open(file, StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
                 case PIPE_OUTPUT:
-                    return ProcessBuilder.Redirect.to(file);
+                    return SelfishChannels.open(file, StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
                 default:
                     throw new IllegalArgumentException("invalid pipeline direction");
             }
         }
     }
 
-    public static class StdPipe extends IOPipe {
-        public StdPipe(int direction, FileDescriptor sourceDescriptor) {
-            super(direction, sourceDescriptor);
-        }
+    /*
+     * Input produced by the shell itself, such as a heredoc. Children get a pipe that
+     * the shell writes the channel's bytes into.
+     */
+    public static class ChannelPipe extends IOPipe {
+        private final ReadableByteChannel channel;
 
-        @Override
-        public ProcessBuilder.Redirect getRedirect() {
-            return ProcessBuilder.Redirect.PIPE;
+        public ChannelPipe(ReadableByteChannel channel) {
+            super(PIPE_INPUT, FileDescriptor.in);
+            this.channel = channel;
         }
 
+        public ReadableByteChannel getChannel() {
+            return channel;
+        }
+    }
 
+    public static class StdPipe extends IOPipe {
+        public StdPipe(int direction, FileDescriptor sourceDescriptor) {
+            super(direction, sourceDescriptor);
+        }
     }
 
     public static class ClosedPipe extends IOPipe {
         protected ClosedPipe(int direction, FileDescriptor sourceDescriptor) {
             super(direction, sourceDescriptor);
         }
+    }
+
+    /*
+     * Whether descriptor 1 of this process is a terminal. Java only tells whether stdin
+     * and stdout both are, through System.console(), so where there is /proc the
+     * descriptor is looked up there.
+     */
+    public static boolean isStandardOutputTerminal() {
+        try {
+            final var target = Files.readSymbolicLink(Paths.get("/proc/self/fd/1")).toString();
+            return target.startsWith("/dev/pts/") || target.startsWith("/dev/tty") || target.equals("/dev/console");
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return System.console() != null;
+        }
+    }
+
+    /*
+     * What a child used, sampled while it runs: once it has been reaped the system
+     * forgets, and the JDK reaps children as soon as they exit. CPU time comes from
+     * ProcessHandle.Info, the peak resident set from /proc where there is one. Both
+     * are what the last sample saw, so they are lower bounds: the time after it is
+     * missed, and a child that is done before the first sample reports -1 for both.
+     */
+    public static final class Usage {
+        private static final long MIN_INTERVAL_MILLIS = 1;
+        private static final long MAX_INTERVAL_MILLIS = 100;
+        private static final String DELEGATE = "delegate";
+
+        private final long startNanos = System.nanoTime();
+        private final ProcessHandle handle;
+        private long wallNanos = -1;
+        private long cpuNanos = -1;
+        private long peakRssKilobytes = -1;
+        private boolean sampled;
+        private long interval = MIN_INTERVAL_MILLIS;
+
+        public Usage(Process process) {
+            this.handle = handleOf(process);
+        }
+
+        /*
+         * Processes started through a context come wrapped in one of Truffle's that has
+         * no pid. The JDK's process is its delegate, which reflection can read where
+         * Truffle's packages are open to it, as they are on the class path. Otherwise
+         * the child is not sampled at all.
+         */
+        private static ProcessHandle handleOf(Process process) {
+            for (var current = process; current != null; current = delegateOf(current)) {
+                try {
+                    return current.toHandle();
+                } catch (UnsupportedOperationException e) {
+                    // look inside the wrapper
+                }
+            }
+            return null;
+        }
+
+        private static Process delegateOf(Process process) {
+            try {
+                final var field = process.getClass().getDeclaredField(DELEGATE);
+                if (!Process.class.isAssignableFrom(field.getType())) {
+                    return null;
+                }
+                field.setAccessible(true);
+                return (Process) field.get(process);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        /*
+         * How long to wait for the child before the next sample. Short lived children
+         * are sampled often, long running ones every tenth of a second.
+         */
+        public long nextInterval() {
+            final var current = interval;
+            interval = Math.min(2 * interval, MAX_INTERVAL_MILLIS);
+            return current;
+        }
+
+        public void sample() {
+            if (handle == null) {
+                return;
+            }
+            handle.info().totalCpuDuration().ifPresent(duration -> {
+                cpuNanos = duration.toNanos();
+                sampled = true;
+            });
+            final var status = Paths.get("/proc", Long.toString(handle.pid()), "status");
+            if (!Files.isReadable(status)) {
+                return;
+            }
+            try (var lines = Files.lines(status)) {
+                lines.filter(line -> line.startsWith("VmHWM:"))
+                        .findFirst()
+                        .ifPresent(line -> {
+                            peakRssKilobytes = Math.max(peakRssKilobytes, parseKilobytes(line));
+                            sampled = true;
+                        });
+            } catch (IOException | UncheckedIOException ignored) {
+                // gone between two samples
+            }
+        }
+
+        private static long parseKilobytes(String line) {
+            final var value = line.substring("VmHWM:".length()).trim();
+            final var space = value.indexOf(' ');
+            return Long.parseLong(space < 0 ? value : value.substring(0, space));
+        }
+
+        /*
+         * Stops the clock. Called again when the child failed, which changes nothing.
+         */
+        public void finish() {
+            if (wallNanos < 0) {
+                wallNanos = System.nanoTime() - startNanos;
+            }
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        public long getPeakRssKilobytes() {
+            return peakRssKilobytes;
+        }
 
-        @Override
-        public ProcessBuilder.Redirect getRedirect() {
-            return ProcessBuilder.Redirect.DISCARD;
+        /*
+         * Whether any sample found the child, so that the figures above say anything.
+         */
+        public boolean isSampled() {
+            return sampled;
         }
     }
 }
@@ -0,0 +1,41 @@
+package fan.zhuyi.selfish.language.utils;
+
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+
+/*
+ * A source that is a piece of a larger one, such as a statement read from standard
+ * input, says where it starts with a line fragment in its URI as in RFC 5147:
+ * file:///dev/stdin#line=10 is the text after the first ten lines. Lines reported
+ * for it count from the start of the whole.
+ */
+public final class SelfishSources {
+    private static final String LINE_FRAGMENT = "line=";
+
+    private SelfishSources() {
+    }
+
+    public static int getLineOffset(Source source) {
+        final var fragment = source.getURI().getFragment();
+        if (fragment == null || !fragment.startsWith(LINE_FRAGMENT)) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(fragment.substring(LINE_FRAGMENT.length())));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /*
+     * name:line:column of a character of the source.
+     */
+    public static String location(Source source, int offset) {
+        return source.getName() + ":" + (source.getLineNumber(offset) + getLineOffset(source))
+               + ":" + source.getColumnNumber(offset);
+    }
+
+    public static String location(SourceSection section) {
+        return location(section.getSource(), section.getCharIndex());
+    }
+}
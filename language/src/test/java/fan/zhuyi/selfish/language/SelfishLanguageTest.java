@@ -0,0 +1,414 @@
+package fan.zhuyi.selfish.language;
+
+import fan.zhuyi.selfish.language.runtime.SelfishString;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.EnvironmentAccess;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SelfishLanguageTest {
+
+    private static Context.Builder newContext(Engine engine) {
+        return Context.newBuilder(SelfishLanguage.ID)
+                .engine(engine)
+                .allowCreateProcess(true)
+                .allowIO(true)
+                .allowEnvironmentAccess(EnvironmentAccess.INHERIT);
+    }
+
+    @Test
+    public void sharedEngine() {
+        try (var engine = Engine.create()) {
+            var source = Source.create(SelfishLanguage.ID, "true; false\ntrue # comment\n");
+            for (var i = 0; i < 3; ++i) {
+                try (var context = newContext(engine).build()) {
+                    assertEquals(0, context.eval(source).asInt());
+                    assertEquals(1, context.eval(SelfishLanguage.ID, "false").asInt());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void syntaxError() {
+        try (var context = Context.create(SelfishLanguage.ID)) {
+            var error = assertThrows(PolyglotException.class, () -> context.eval(SelfishLanguage.ID, "echo 'unclosed"));
+            assertTrue(error.getMessage().contains("unexpected EOI"));
+        }
+    }
+
+    @Test
+    public void bufferedOutput() {
+        var out = new ByteArrayOutputStream();
+        try (var context = Context.newBuilder(SelfishLanguage.ID).out(out).option("selfish.OutputFlush", "BLOCK").build()) {
+            context.eval(SelfishLanguage.ID, "cat << \"\"\"partial\"\"\"");
+            assertEquals("partial", out.toString());
+            context.eval(SelfishLanguage.ID, "echo a 'b c'; echo \"您\"");
+            assertEquals("partiala b c\n您\n", out.toString(StandardCharsets.UTF_8));
+        }
+
+        out.reset();
+        try (var context = Context.newBuilder(SelfishLanguage.ID).out(out).option("selfish.OutputFlush", "LINE").build()) {
+            context.eval(SelfishLanguage.ID, "echo line");
+            assertEquals("line\n", out.toString());
+        }
+    }
+
+    @Test
+    public void fileRedirection(@TempDir Path directory) {
+        var script = String.format("echo hello > '%1$s/a'\n"
+                                   + "echo world >> '%1$s/a'\n"
+                                   + "cat '%1$s/a' > '%1$s/b'\n"
+                                   + "cat < '%1$s/b' >> '%1$s/b.log'; cat '%1$s/a' >>'%1$s/b.log'\n"
+                                   + "sort -r < '%1$s/a' > '%1$s/c'\n", directory);
+        try (var engine = Engine.create(); var context = newContext(engine).build()) {
+            assertEquals(0, context.eval(SelfishLanguage.ID, script).asInt());
+        }
+        assertDoesNotThrow(() -> {
+            assertEquals("hello\nworld\n", Files.readString(directory.resolve("b")));
+            assertEquals("hello\nworld\nhello\nworld\n", Files.readString(directory.resolve("b.log")));
+            assertEquals("world\nhello\n", Files.readString(directory.resolve("c")));
+        });
+    }
+
+    @Test
+    public void loops(@TempDir Path directory) {
+        var out = new ByteArrayOutputStream();
+        var script = String.format("for x in 1 2 { for x in a { echo $x }; echo $x\n}\n"
+                                   + "each line < '%1$s/lines' {\n  echo \"<$line>\" >> '%1$s/copy'\n}\n"
+                                   + "while test -f '%1$s/flag' { rm '%1$s/flag'; echo removed }\n"
+                                   + "for f in x y { echo pre-$f.txt }", directory);
+        assertDoesNotThrow(() -> {
+            Files.writeString(directory.resolve("lines"), "one\ntwo\n");
+            Files.writeString(directory.resolve("flag"), "");
+        });
+        try (var engine = Engine.create(); var context = newContext(engine).out(out).build()) {
+            context.eval(SelfishLanguage.ID, script);
+        }
+        assertEquals("a\n1\na\n2\nremoved\npre-x.txt\npre-y.txt\n", out.toString());
+        assertDoesNotThrow(() -> assertEquals("<one>\n<two>\n", Files.readString(directory.resolve("copy"))));
+    }
+
+    @Test
+    public void functions(@TempDir Path directory) {
+        var out = new ByteArrayOutputStream();
+        var script = String.format("fn greet who { echo hello $who }\n"
+                                   + "fn a x { echo a$x }; fn b x { echo b$x }; fn c x { echo c$x }; fn d x { echo d$x }\n"
+                                   + "for f in a b c d a greet { $f 1 }\n"
+                                   + "fn greet { echo bye $who }; greet\n"
+                                   + "fn log { echo first; printf 'second\\n'; echo third }; log > '%1$s/log'\n", directory);
+        try (var engine = Engine.create(); var context = newContext(engine).out(out).build()) {
+            context.eval(SelfishLanguage.ID, script);
+            var error = assertThrows(PolyglotException.class, () -> context.eval(SelfishLanguage.ID, "no-such-command-here"));
+            assertTrue(error.getMessage().contains("command not found"));
+        }
+        assertEquals("a1\nb1\nc1\nd1\na1\nhello 1\nbye \n", out.toString());
+        assertDoesNotThrow(() -> assertEquals("first\nsecond\nthird\n", Files.readString(directory.resolve("log"))));
+    }
+
+    @Test
+    public void assignments(@TempDir Path directory) {
+        var out = new ByteArrayOutputStream();
+        var lines = new StringBuilder();
+        var expected = new StringBuilder();
+        for (var i = 0; i < 5000; ++i) {
+            lines.append("line ").append(i).append('\n');
+            expected.append("line ").append(i).append(',');
+        }
+        assertDoesNotThrow(() -> Files.writeString(directory.resolve("lines"), lines));
+        var script = String.format("s = ''\n"
+                                   + "each line < '%1$s/lines' { s = \"$s$line,\" }\n"
+                                   + "echo $s > '%1$s/joined'\n"
+                                   + "fn local x { y = \"<$x>\"; echo $y $s2 }\n"
+                                   + "s2 = short; local a\n", directory);
+        try (var engine = Engine.create(); var context = newContext(engine).out(out).build()) {
+            context.eval(SelfishLanguage.ID, script);
+            context.eval(SelfishLanguage.ID, "echo $s2 \"[$y]\"");
+        }
+        assertEquals("<a> short\nshort []\n", out.toString());
+        assertDoesNotThrow(() -> assertEquals(expected + "\n", Files.readString(directory.resolve("joined"))));
+    }
+
+    @Test
+    public void environment(@TempDir Path directory) {
+        var out = new ByteArrayOutputStream();
+        var script = String.format("fn show { echo $GREETING }\n"
+                                   + "for i in 1 2 3 4 { show; GREETING = \"hi$i\" }\n"
+                                   + "export GREETING; sh -c 'echo $GREETING' > '%1$s/child'\n"
+                                   + "export GREETING=bye; show; sh -c 'echo $GREETING' >> '%1$s/child'\n", directory);
+        try (var engine = Engine.create(); var context = newContext(engine).out(out).build()) {
+            context.eval(SelfishLanguage.ID, script);
+            context.eval(SelfishLanguage.ID, "echo $PATH");
+        }
+        assertEquals("\nhi1\nhi2\nhi3\nhi4\n" + System.getenv("PATH") + "\n", out.toString());
+        assertDoesNotThrow(() -> assertEquals("hi4\nbye\n", Files.readString(directory.resolve("child"))));
+    }
+
+    @Test
+    public void commandSubstitution() {
+        var out = new ByteArrayOutputStream();
+        var script = "fn two { echo one; printf 'two\\n\\n' }\n"
+                     + "echo \"[$(two)]\" $(printf 'a b'; echo c)\n"
+                     + "x = $(echo $(echo nested)); echo $x\n";
+        try (var engine = Engine.create(); var context = newContext(engine).out(out).build()) {
+            context.eval(SelfishLanguage.ID, script);
+        }
+        assertEquals("[one\ntwo] a bc\nnested\n", out.toString());
+
+        try (var engine = Engine.create();
+             var context = newContext(engine).option("selfish.SubstitutionLimit", "16").build()) {
+            var error = assertThrows(PolyglotException.class,
+                    () -> context.eval(SelfishLanguage.ID, "echo $(seq 1 100)"));
+            assertTrue(error.getMessage().contains("exceeds 16 bytes"));
+        }
+    }
+
+    @Test
+    public void substitutionAtLimit(@TempDir Path directory) {
+        var out = new ByteArrayOutputStream();
+        assertDoesNotThrow(() -> {
+            Files.writeString(directory.resolve("exact"), "0123456789abcdef");
+            Files.writeString(directory.resolve("over"), "0123456789abcdefg");
+        });
+        try (var engine = Engine.create();
+             var context = newContext(engine).out(out).option("selfish.SubstitutionLimit", "16").build()) {
+            context.eval(SelfishLanguage.ID, String.format("echo $(cat '%s/exact')", directory));
+            context.eval(SelfishLanguage.ID, "echo $(printf 0123456789abcdef)");
+            var error = assertThrows(PolyglotException.class,
+                    () -> context.eval(SelfishLanguage.ID, String.format("echo $(cat '%s/over')", directory)));
+            assertTrue(error.getMessage().contains("exceeds 16 bytes"));
+        }
+        assertEquals("0123456789abcdef\n0123456789abcdef\n", out.toString());
+    }
+
+    @Test
+    public void heredocInput() {
+        var out = new ByteArrayOutputStream();
+        var big = "key = value\n".repeat(100_000);
+        var script = "x = world\n"
+                     + "echo \"$(sort << \"\"\"\nb $x\na $(echo sub; echo)\nc\n\"\"\")\"\n"
+                     + "echo $(head -n 2 << \"\"\"" + big + "\"\"\")\n"
+                     + "x = $(wc -l << \"\"\"" + big + "$x\n\"\"\"); echo $x\n"
+                     + "cat << \"\"\"" + big + "\"\"\" > /dev/null; cat << $x\n";
+        try (var engine = Engine.create(); var context = newContext(engine).out(out).build()) {
+            context.eval(SelfishLanguage.ID, script);
+        }
+        assertEquals("\na sub\nb world\nc\nkey = value\nkey = value\n100001\n100001", out.toString());
+    }
+
+    @Test
+    public void externalSubstitutionInHeredoc() {
+        var out = new ByteArrayOutputStream();
+        var script = "tr a-z A-Z << \"\"\"a $(/bin/echo inner) b\n\"\"\"\n"
+                     + "cat << \"\"\"A $(/bin/echo inner) B\"\"\"\n";
+        try (var engine = Engine.create(); var context = newContext(engine).out(out).build()) {
+            context.eval(SelfishLanguage.ID, script);
+        }
+        assertEquals("A INNER B\nA inner B", out.toString());
+    }
+
+    @Test
+    public void parallelScripts(@TempDir Path directory) throws Exception {
+        var source = Source.create(SelfishLanguage.ID, "fn emit tag { for i in 1 2 3 { echo \"$tag-$i\" } }\n"
+                                                       + "s = ''\n"
+                                                       + "for n in a b c d { s = \"$s$n\" }\n"
+                                                       + "emit $s > \"$OUT\"\n");
+        var pool = Executors.newFixedThreadPool(8);
+        try (var engine = Engine.create(); var shared = newContext(engine).build()) {
+            var tasks = new ArrayList<Callable<String>>();
+            for (var i = 0; i < 64; ++i) {
+                var file = directory.resolve("out-" + i);
+                if (i % 2 == 0) {
+                    tasks.add(() -> {
+                        try (var context = newContext(engine).environment("OUT", file.toString()).build()) {
+                            context.eval(source);
+                        }
+                        return Files.readString(file);
+                    });
+                } else {
+                    tasks.add(() -> {
+                        shared.eval(SelfishLanguage.ID, String.format("echo %1$s > '%2$s'; echo %1$s >> '%2$s'", file.getFileName(), file));
+                        return Files.readString(file);
+                    });
+                }
+            }
+            var results = pool.invokeAll(tasks);
+            for (var i = 0; i < results.size(); ++i) {
+                var expected = i % 2 == 0 ? "abcd-1\nabcd-2\nabcd-3\n" : String.format("out-%1$d\nout-%1$d\n", i);
+                assertEquals(expected, results.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentSubstitutions(@TempDir Path directory) throws Exception {
+        var pool = Executors.newFixedThreadPool(32);
+        try (var engine = Engine.create(); var context = newContext(engine).build()) {
+            var tasks = new ArrayList<Callable<String>>();
+            for (var i = 0; i < 128; ++i) {
+                var file = directory.resolve("count-" + i);
+                var script = String.format("x%1$d = $(seq 1 %2$d); echo $(wc -l << \"$x%1$d\n\") > '%3$s'",
+                        i, 1000 + i, file);
+                tasks.add(() -> {
+                    context.eval(SelfishLanguage.ID, script);
+                    return Files.readString(file).strip();
+                });
+            }
+            var results = pool.invokeAll(tasks);
+            for (var i = 0; i < results.size(); ++i) {
+                assertEquals(String.valueOf(1000 + i), results.get(i).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        var reactors = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("selfish-reactor-"))
+                .count();
+        assertTrue(reactors > 0 && reactors <= 4);
+    }
+
+    @Test
+    public void processSandbox(@TempDir Path directory) {
+        var created = directory.resolve("created");
+        var script = String.format("touch '%s'", created);
+        try (var context = Context.newBuilder(SelfishLanguage.ID).allowIO(true).build()) {
+            var error = assertThrows(PolyglotException.class, () -> context.eval(SelfishLanguage.ID, script));
+            assertTrue(error.getMessage().startsWith("touch: "), error.getMessage());
+        }
+        assertFalse(Files.exists(created));
+        var out = new ByteArrayOutputStream();
+        var err = new ByteArrayOutputStream();
+        try (var engine = Engine.create(); var context = newContext(engine).out(out).err(err).build()) {
+            context.eval(SelfishLanguage.ID, "echo before; sh -c 'echo child; echo oops >&2'; echo after");
+        }
+        assertEquals("before\nchild\nafter\n", out.toString());
+        assertEquals("oops\n", err.toString());
+    }
+
+    @Test
+    public void fileSandbox(@TempDir Path directory) throws Exception {
+        var secret = Files.writeString(directory.resolve("secret"), "hidden\n");
+        var written = directory.resolve("written");
+        var out = new ByteArrayOutputStream();
+        try (var context = Context.newBuilder(SelfishLanguage.ID).out(out).build()) {
+            var read = assertThrows(PolyglotException.class,
+                    () -> context.eval(SelfishLanguage.ID, String.format("cat '%s'", secret)));
+            assertFalse(read.isInternalError());
+            assertTrue(read.getMessage().startsWith("cat: "), read.getMessage());
+            var write = assertThrows(PolyglotException.class,
+                    () -> context.eval(SelfishLanguage.ID, String.format("echo leaked > '%s'", written)));
+            assertFalse(write.isInternalError());
+            var each = assertThrows(PolyglotException.class,
+                    () -> context.eval(SelfishLanguage.ID, String.format("each line < '%s' { echo $line }", secret)));
+            assertFalse(each.isInternalError());
+            assertTrue(each.getMessage().startsWith("each: "), each.getMessage());
+        }
+        assertEquals("", out.toString());
+        assertFalse(Files.exists(written));
+    }
+
+    @Test
+    public void nestedSubstitutions() throws Exception {
+        var out = new ByteArrayOutputStream();
+        var script = "x = $(sed -e p -e p -e p << \"\"\"$(seq 1 300000)\"\"\")\n"
+                     + "echo $(wc -l << \"$x\n\")\n";
+        var pool = Executors.newSingleThreadExecutor();
+        try (var engine = Engine.create(); var context = newContext(engine).out(out).build()) {
+            var result = pool.submit(() -> context.eval(SelfishLanguage.ID, script));
+            try {
+                result.get(60, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                // the stuck thread blocks in a pipe, only killing the children frees it
+                ProcessHandle.current().descendants().forEach(ProcessHandle::destroyForcibly);
+                context.close(true);
+                fail("nested substitutions deadlocked");
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals("1200000\n", out.toString());
+    }
+
+    @Test
+    public void ropeEquality() {
+        var half = "x".repeat(SelfishString.MIN_ROPE_LENGTH);
+        var flat = half + half;
+        var rope = SelfishString.concat(half, half);
+        assertTrue(rope instanceof SelfishString);
+        assertEquals(rope, SelfishString.concat(half, half));
+        assertEquals(rope.hashCode(), flat.hashCode());
+        // not symmetric with String, so both sides are converted before comparing
+        assertNotEquals(rope, flat);
+        assertNotEquals(flat, rope);
+        assertEquals(flat, rope.toString());
+    }
+
+    @Test
+    public void processAccounting() {
+        var err = new ByteArrayOutputStream();
+        var source = Source.newBuilder(SelfishLanguage.ID, "true\nfor i in 1 2 3 { sh -c 'sleep 0.1; exit 3' }\n", "accounting.sf").buildLiteral();
+        try (var engine = Engine.create();
+             var context = newContext(engine).err(err).option("selfish.ProcessReport", "true").build()) {
+            context.eval(source);
+            var processes = context.getBindings(SelfishLanguage.ID).getMember("processes");
+            assertEquals(2, processes.getArraySize());
+            var sh = processes.getArrayElement(1);
+            assertEquals("sh", sh.getMember("command").asString());
+            assertEquals("accounting.sf:2:18", sh.getMember("location").asString());
+            assertEquals(3, sh.getMember("count").asInt());
+            assertEquals(3, sh.getMember("failed").asInt());
+            assertTrue(sh.getMember("wallMillis").asLong() >= 300);
+            assertEquals(3, sh.getMember("sampled").asInt());
+            assertTrue(sh.getMember("peakRssKilobytes").asLong() > 0);
+        }
+        var report = err.toString(StandardCharsets.UTF_8);
+        assertTrue(report.startsWith("accounting.sf: 4 processes, 3 failed"), report);
+        assertTrue(report.contains("accounting.sf:2:18"), report);
+    }
+
+    @Test
+    public void accountingIsOptIn() {
+        try (var engine = Engine.create(); var context = newContext(engine).build()) {
+            var processes = context.getBindings(SelfishLanguage.ID).getMember("processes");
+            context.eval(SelfishLanguage.ID, "true");
+            assertEquals(0, processes.getArraySize());
+        }
+        try (var engine = Engine.create();
+             var context = newContext(engine).option("selfish.ProcessAccounting", "true").build()) {
+            context.eval(SelfishLanguage.ID, "true");
+            assertEquals(1, context.getBindings(SelfishLanguage.ID).getMember("processes").getArraySize());
+        }
+    }
+
+    @Test
+    public void statementLines() {
+        try (var engine = Engine.create();
+             var context = newContext(engine).option("selfish.ProcessAccounting", "true").build()) {
+            var processes = context.getBindings(SelfishLanguage.ID).getMember("processes");
+            context.eval(Source.newBuilder(SelfishLanguage.ID, "  true\n", "<stdin>")
+                    .uri(URI.create("file:///dev/stdin#line=41")).buildLiteral());
+            assertEquals("<stdin>:42:3", processes.getArrayElement(0).getMember("location").asString());
+            var error = assertThrows(PolyglotException.class, () -> context.eval(Source.newBuilder(SelfishLanguage.ID, "echo 'x", "<stdin>")
+                    .uri(URI.create("file:///dev/stdin#line=6")).buildLiteral()));
+            assertTrue(error.getMessage().startsWith("<stdin>:7:"), error.getMessage());
+        }
+    }
+}
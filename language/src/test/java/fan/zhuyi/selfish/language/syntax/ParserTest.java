@@ -3,6 +3,15 @@ package fan.zhuyi.selfish.language.syntax;
 import com.oracle.truffle.api.source.Source;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class ParserTest {
@@ -44,6 +53,86 @@ public class ParserTest {
     }
 
 
+    @Test
+    public void parseHeredoc() {
+        testRawStr("\"\"\"\nline 1\nline \"2\"\n\"\"\"", "\nline 1\nline \"2\"\n", null);
+        testRawStr("\"\"\"a\"\"b\\tc\"\"\"", "a\"\"b\tc", null);
+        var text = "key = value\n".repeat(4096);
+        testRawStr("\"\"\"" + text + "\"\"\"", text, null);
+        testRawStr("\"" + text + "\\x41\"", text + "A", null);
+    }
+
+    private static List<String> readStatements(String script) {
+        var bytes = script.getBytes(StandardCharsets.UTF_8);
+        // hands out one byte per read to exercise statements split across reads
+        var channel = new ReadableByteChannel() {
+            int position = 0;
+
+            @Override
+            public int read(ByteBuffer dst) {
+                if (position == bytes.length) {
+                    return -1;
+                }
+                dst.put(bytes[position++]);
+                return 1;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        var statements = new ArrayList<String>();
+        assertDoesNotThrow(() -> {
+            try (var reader = new SelfishStatementReader(channel, StandardCharsets.UTF_8)) {
+                String statement;
+                while ((statement = reader.nextStatement()) != null) {
+                    statements.add(statement);
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        return statements;
+    }
+
+    @Test
+    public void readStatements() {
+        assertEquals(List.of("echo 1\n", "echo 2;", " echo 3\n"),
+                readStatements("echo 1\necho 2; echo 3\n"));
+        assertEquals(List.of("echo \"\"\"\n您\n\"\"\" ", "echo 'last'"),
+                readStatements("# comment\n\necho \"\"\"\n您\n\"\"\" # trailing\necho 'last'"));
+        assertEquals(List.of(), readStatements("  # only a comment"));
+        assertEquals(List.of("fn f {\n  echo $(echo \"}\" # )\n)\n}\n", "echo 'a''b' x#y $z", "x = \"\"\"$(a;)\"\"\";", " y"),
+                readStatements("fn f {\n  echo $(echo \"}\" # )\n)\n}\necho 'a''b' x#y $z#\nx = \"\"\"$(a;)\"\"\"; y"));
+    }
+
+    @Test
+    public void statementLines() {
+        var script = "# header\n\necho 1\necho \"\"\"\n\n\"\"\"; echo 2\n  echo 3\n";
+        var channel = Channels.newChannel(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)));
+        var lines = new ArrayList<Integer>();
+        assertDoesNotThrow(() -> {
+            try (var reader = new SelfishStatementReader(channel, StandardCharsets.UTF_8)) {
+                while (reader.nextStatement() != null) {
+                    lines.add(reader.getLine());
+                }
+            }
+        });
+        assertEquals(List.of(3, 4, 6, 7), lines);
+    }
+
+    @Test
+    public void readLongStatement() {
+        // one byte per read, so this is quadratic if each read rescans the statement
+        var heredoc = "cat << \"\"\"\n" + "line\n".repeat(100_000) + "\"\"\"\n";
+        assertEquals(List.of(heredoc, "echo done\n"), readStatements(heredoc + "echo done\n"));
+    }
+
     @Test
     public void parseBareword() {
         testBareword("~213/123", "~213/123", null);
@@ -51,4 +140,17 @@ public class ParserTest {
         testBareword("@@@@", "@@@@", null);
     }
 
+    @Test
+    public void memoIsCut() {
+        assertDoesNotThrow(() -> {
+            var script = "echo \"a $b\" 'c' d\nfor x in 1 2 { echo $x }\n".repeat(2000);
+            var parser = new SelfishParser(Source.newBuilder("test", script, "test").build());
+            var statements = 0;
+            for (var ignored : parser.parseProgram().getChildren()) {
+                statements += 1;
+            }
+            assertEquals(4000, statements);
+            assertTrue(parser.getTable().size() < 16);
+        });
+    }
 }
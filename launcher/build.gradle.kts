@@ -48,4 +48,25 @@ nativeImage {
             "--no-fallback",
             "--initialize-at-build-time"
     )
-}
\ No newline at end of file
+}
+val startup by sourceSets.creating
+
+/*
+ * Time to first output and to exit of the launcher on the JVM and, once built with
+ * nativeImage, as native image. The report is written to build/reports/startup.
+ */
+val startupBenchmark by tasks.registering(JavaExec::class) {
+    group = "benchmark"
+    description = "Measures startup of the JVM and native launchers."
+    dependsOn(tasks.installDist)
+    classpath = startup.runtimeClasspath
+    mainClass.set("fan.zhuyi.selfish.launcher.StartupBenchmark")
+    args(
+            "$buildDir/reports/startup/startup.json",
+            (project.findProperty("startupRuns") ?: "20").toString(),
+            file("src/startup/resources/first-output.slsh").path,
+            "jvm=$buildDir/install/${project.name}/bin/${project.name}",
+            "native=$buildDir/executable/selfish"
+    )
+    outputs.upToDateWhen { false }
+}
@@ -1,34 +1,97 @@
 package fan.zhuyi.selfish.launcher;
+import fan.zhuyi.selfish.language.syntax.SelfishStatementReader;
 import org.graalvm.launcher.AbstractLanguageLauncher;
 import org.graalvm.options.OptionCategory;
 import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.EnvironmentAccess;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 public class SelfishLauncher extends AbstractLanguageLauncher {
+    private static final String LANGUAGE_ID = "selfish";
+    private static final String STDIN_NAME = "<stdin>";
+    private static final String STDIN_URI = "file:///dev/stdin";
+
+    private String file = null;
 
     @Override
     protected List<String> preprocessArguments(List<String> arguments, Map<String, String> polyglotOptions) {
-        return null;
+        final var unrecognized = new ArrayList<String>();
+        for (var argument : arguments) {
+            if (file == null && !argument.startsWith("-")) {
+                file = argument;
+            } else {
+                unrecognized.add(argument);
+            }
+        }
+        return unrecognized;
     }
 
     @Override
     protected void launch(Context.Builder contextBuilder) {
+        // the context streams are the ones of this process, children can have them directly
+        contextBuilder
+                .allowIO(true)
+                .allowCreateProcess(true)
+                .allowEnvironmentAccess(EnvironmentAccess.INHERIT)
+                .option(LANGUAGE_ID + ".InheritIO", "true");
+        try (var context = contextBuilder.build()) {
+            if (file != null) {
+                context.eval(Source.newBuilder(LANGUAGE_ID, new File(file)).build());
+            } else {
+                runStream(context, new FileInputStream(FileDescriptor.in).getChannel());
+            }
+        } catch (PolyglotException e) {
+            if (e.isExit()) {
+                throw exit(e.getExitStatus());
+            }
+            throw abort(e.getMessage(), 1);
+        } catch (IOException e) {
+            throw abort(e);
+        }
+    }
 
+    /*
+     * Statements piped on stdin run one by one as soon as each of them is complete.
+     * Their sources are not cached, so nothing of a finished statement is retained.
+     * Each says in its URI which line it starts on, so that locations in it count
+     * from the start of the input.
+     */
+    private static void runStream(Context context, ReadableByteChannel channel) throws IOException {
+        try (var reader = new SelfishStatementReader(channel, StandardCharsets.UTF_8)) {
+            String statement;
+            while ((statement = reader.nextStatement()) != null) {
+                context.eval(Source.newBuilder(LANGUAGE_ID, statement, STDIN_NAME)
+                        .uri(URI.create(STDIN_URI + "#line=" + (reader.getLine() - 1)))
+                        .cached(false)
+                        .build());
+            }
+        }
     }
 
     @Override
     protected String getLanguageId() {
-        return null;
+        return LANGUAGE_ID;
     }
 
     @Override
     protected void printHelp(OptionCategory maxCategory) {
-
+        println("Usage: selfish [OPTION]... [FILE]");
+        println("Run FILE, or statements read from standard input when no FILE is given.");
     }
 
     public static void main(String[] args) {
         new SelfishLauncher().launch(args);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package fan.zhuyi.selfish.launcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * Startup of whole launcher processes, which JMH cannot measure: time to the first
+ * byte on stdout and time to exit, for each launcher given as name=executable.
+ * Executables that have not been built are reported as skipped.
+ *
+ * Usage: StartupBenchmark REPORT RUNS SCRIPT NAME=EXECUTABLE...
+ */
+public final class StartupBenchmark {
+    private static final int WARMUP_RUNS = 2;
+
+    private StartupBenchmark() {
+    }
+
+    private static final class Sample {
+        final double firstOutputMillis;
+        final double exitMillis;
+
+        Sample(double firstOutputMillis, double exitMillis) {
+            this.firstOutputMillis = firstOutputMillis;
+            this.exitMillis = exitMillis;
+        }
+    }
+
+    private static Sample run(String executable, String script) throws IOException, InterruptedException {
+        final var start = System.nanoTime();
+        // stdout is a pipe here, which the launcher would flush by size only
+        final var process = new ProcessBuilder(executable, "--selfish.OutputFlush=LINE", script)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        long firstOutput = -1;
+        try (InputStream output = process.getInputStream()) {
+            if (output.read() >= 0) {
+                firstOutput = System.nanoTime();
+            }
+            output.transferTo(OutputStream.nullOutputStream());
+        }
+        final var status = process.waitFor();
+        final var exit = System.nanoTime();
+        if (status != 0 || firstOutput < 0) {
+            throw new IOException(executable + " failed with status " + status);
+        }
+        return new Sample((firstOutput - start) / 1e6, (exit - start) / 1e6);
+    }
+
+    private static void writeStatistics(Writer writer, String name, double[] values) throws IOException {
+        final var sorted = values.clone();
+        Arrays.sort(sorted);
+        final var mean = Arrays.stream(sorted).average().orElse(Double.NaN);
+        final var median = sorted.length % 2 == 1
+                ? sorted[sorted.length / 2]
+                : (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+        writer.write(String.format(Locale.ROOT,
+                "      \"%s\": {\"min\": %.3f, \"median\": %.3f, \"mean\": %.3f, \"max\": %.3f}",
+                name, sorted[0], median, mean, sorted[sorted.length - 1]));
+    }
+
+    private static String quote(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 4) {
+            System.err.println("Usage: StartupBenchmark REPORT RUNS SCRIPT NAME=EXECUTABLE...");
+            System.exit(2);
+        }
+        final Path report = Paths.get(args[0]);
+        final var runs = Integer.parseInt(args[1]);
+        final var script = args[2];
+        final var entries = new ArrayList<String>();
+        for (var i = 3; i < args.length; ++i) {
+            final var separator = args[i].indexOf('=');
+            final var name = args[i].substring(0, separator);
+            final var executable = args[i].substring(separator + 1);
+            final var entry = new StringBuilder();
+            entry.append("    {\"name\": ").append(quote(name)).append(", \"executable\": ").append(quote(executable));
+            if (!Files.isExecutable(Paths.get(executable))) {
+                System.out.printf("%s: skipped, %s is not built%n", name, executable);
+                entries.add(entry.append(", \"skipped\": true}").toString());
+                continue;
+            }
+            for (var warmup = 0; warmup < WARMUP_RUNS; ++warmup) {
+                run(executable, script);
+            }
+            final List<Sample> samples = new ArrayList<>(runs);
+            for (var run = 0; run < runs; ++run) {
+                samples.add(run(executable, script));
+            }
+            final var writer = new StringWriter();
+            writer.write(",\n");
+            writeStatistics(writer, "firstOutputMillis", samples.stream().mapToDouble(s -> s.firstOutputMillis).toArray());
+            writer.write(",\n");
+            writeStatistics(writer, "exitMillis", samples.stream().mapToDouble(s -> s.exitMillis).toArray());
+            entries.add(entry.append(", \"runs\": ").append(runs).append(writer).append("\n    }").toString());
+            System.out.printf("%s: %s%n", name, writer.toString().replaceAll("\\s+", " ").substring(2));
+        }
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        try (var writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            writer.write("{\n  \"script\": " + quote(script) + ",\n  \"results\": [\n");
+            writer.write(String.join(",\n", entries));
+            writer.write("\n  ]\n}\n");
+        }
+    }
+}